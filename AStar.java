@@ -1,195 +1,292 @@
 package pacman.game.internal;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.PriorityQueue;
 
 import pacman.game.Game;
 import pacman.game.Constants.MOVE;
 
 /*
- * This class is used to compute the shortest path for the ghosts: as these may not reverse, one cannot use 
+ * This class is used to compute the shortest path for the ghosts: as these may not reverse, one cannot use
  * a simple look-up table. Instead, we use the pre-computed shortest path distances as an admissable
  * heuristic. Although AStar needs to be run every time a path is to be found, it is very quick and does
  * not expand too many nodes beyond those on the optimal path.
+ *
+ * The graph itself is immutable, so any number of threads may search it at the same time. The state of a
+ * search is kept in primitive arrays owned by the calling thread: a node belongs to the current search only
+ * if it is stamped with the number of that search, so nothing needs to be cleared between searches. The open
+ * list is a binary heap that knows the position of every node in it; it orders the nodes exactly like the
+ * java.util.PriorityQueue used previously, so the paths found (and thus the paths of PathsCache) are the same.
  */
 public class AStar
 {
-	private N[] graph;
-	
+	private static final MOVE[] MOVES=MOVE.values();
+
+	private static final ThreadLocal<Search> searches=new ThreadLocal<Search>()
+	{
+		protected Search initialValue()
+		{
+			return new Search();
+		}
+	};
+
+	private int[] neighbours;		//node*4+move: the neighbour in that direction, or -1
+
 	public void createGraph(Node[] nodes)
 	{
-		graph=new N[nodes.length];
-		
-		//create graph
-		for(int i=0;i<nodes.length;i++)
-			graph[i]=new N(nodes[i].nodeIndex);
-		
-		//add neighbours
+		neighbours=new int[nodes.length*4];
+
 		for(int i=0;i<nodes.length;i++)
-		{	
-			EnumMap<MOVE,Integer> neighbours=nodes[i].neighbourhood;
-			MOVE[] moves=MOVE.values();
-			
-			for(int j=0;j<moves.length;j++)
-				if(neighbours.containsKey(moves[j]))
-					graph[i].adj.add(new E(graph[neighbours.get(moves[j])],moves[j],1));	
+		{
+			EnumMap<MOVE,Integer> neighbourhood=nodes[i].neighbourhood;
+
+			for(int j=0;j<4;j++)
+			{
+				Integer neighbour=neighbourhood.get(MOVES[j]);
+				neighbours[nodes[i].nodeIndex*4+j]=neighbour==null ? -1 : neighbour;
+			}
 		}
 	}
-	
-	public synchronized int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
-    {	
-		N start=graph[s];
-		N target=graph[t];
-		
-        PriorityQueue<N> open = new PriorityQueue<N>();
-        ArrayList<N> closed = new ArrayList<N>();
-
-        start.g = 0;
-        start.h = game.getShortestPathDistance(start.index, target.index);
-
-        start.reached=lastMoveMade;
-        
-        open.add(start);
-
-        while(!open.isEmpty())
-        {
-            N currentNode = open.poll();
-            closed.add(currentNode);
-            
-            if (currentNode.isEqual(target))
-                break;
-
-            for(E next : currentNode.adj)
-            {
-            	if(next.move!=currentNode.reached.opposite())
-            	{
-	                double currentDistance = next.cost;
-	
-	                if (!open.contains(next.node) && !closed.contains(next.node))
-	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.h = game.getShortestPathDistance(next.node.index, target.index);
-	                    next.node.parent = currentNode;
-	                    
-	                    next.node.reached=next.move;
-	
-	                    open.add(next.node);
-	                }
-	                else if (currentDistance + currentNode.g < next.node.g)
-	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.parent = currentNode;
-	                    
-	                    next.node.reached=next.move;
-	
-	                    if (open.contains(next.node))
-	                        open.remove(next.node);
-	
-	                    if (closed.contains(next.node))
-	                        closed.remove(next.node);
-	
-	                    open.add(next.node);
-	                }
-	            }
-            }
-        }
-
-        return extractPath(target);
+
+	public int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
+    {
+		Search search=_search(s,t,lastMoveMade,game);
+		int[] path=new int[search.pathLength(t)];
+		search.copyPath(t,path);
+
+		return path;
     }
-	
-	public synchronized int[] computePathsAStar(int s, int t, Game game)
-    {	
+
+	public int[] computePathsAStar(int s, int t, Game game)
+    {
 		return computePathsAStar(s, t, MOVE.NEUTRAL, game);
     }
 
-    private synchronized int[] extractPath(N target)
+	/**
+	 * As computePathsAStar(s,t,lastMoveMade,game) but the path is written into the buffer supplied. If the buffer is too
+	 * short, only the beginning of the path is written.
+	 *
+	 * @return the length of the path (which may exceed the length of the buffer)
+	 */
+	public int computePathsAStar(int s, int t, MOVE lastMoveMade, Game game, int[] path)
+	{
+		Search search=_search(s,t,lastMoveMade,game);
+		search.copyPath(t,path);
+
+		return search.pathLength(t);
+	}
+
+	/**
+	 * Previously required after each search; the state of a search is now discarded automatically.
+	 */
+    public void resetGraph()
     {
-    	ArrayList<Integer> route = new ArrayList<Integer>();
-        N current = target;
-        route.add(current.index);
-
-        while (current.parent != null)
-        {
-            route.add(current.parent.index);
-            current = current.parent;
-        }
-        
-        Collections.reverse(route);
-
-        int[] routeArray=new int[route.size()];
-        
-        for(int i=0;i<routeArray.length;i++)
-        	routeArray[i]=route.get(i);
-        
-        return routeArray;
     }
-    
-    public void resetGraph()
+
+    private Search _search(int s, int t, MOVE lastMoveMade, Game game)
     {
-    	for(N node : graph)
+    	Search search=searches.get();
+    	search.begin(neighbours.length/4);
+
+    	search.touch(s);
+    	search.g[s]=0;
+    	search.f[s]=game.getShortestPathDistance(s, t);
+    	search.reached[s]=lastMoveMade.ordinal();
+    	search.push(s);
+
+    	while(search.size>0)
     	{
-    		node.g=0;
-    		node.h=0;
-    		node.parent=null;
-    		node.reached=null;
+    		int current=search.poll();
+    		search.closed[current]=true;
+
+    		if(current==t)
+    			break;
+
+    		int opposite=MOVES[search.reached[current]].opposite().ordinal();
+
+    		for(int move=0;move<4;move++)
+    		{
+    			int next=neighbours[current*4+move];
+
+    			if(next==-1 || move==opposite)
+    				continue;
+
+    			int g=search.g[current]+1;
+
+    			if(!search.isTouched(next))
+    			{
+    				search.touch(next);
+    				search.g[next]=g;
+    				search.f[next]=g+game.getShortestPathDistance(next, t);
+    				search.parent[next]=current;
+    				search.reached[next]=move;
+    				search.push(next);
+    			}
+    			else if(g<search.g[next])
+    			{
+    				//decrease the key: the node is taken off the open list (or re-opened) and added again
+    				search.f[next]+=g-search.g[next];
+    				search.g[next]=g;
+    				search.parent[next]=current;
+    				search.reached[next]=move;
+
+    				if(search.heapIndex[next]>=0)
+    					search.removeAt(search.heapIndex[next]);
+
+    				search.closed[next]=false;
+    				search.push(next);
+    			}
+    		}
     	}
-    }
-}
 
-class N implements Comparable<N>
-{
-    public N parent;
-    public double g, h;
-    public boolean visited = false;
-    public ArrayList<E> adj;
-    public int index;
-    public MOVE reached=null;
-
-    public N(int index)
-    {
-        adj = new ArrayList<E>();
-        this.index=index;
+    	return search;
     }
 
-    public N(double g, double h)
+    /*
+     * The state of a search, one per thread. The heap replicates the sift operations of java.util.PriorityQueue
+     * (including removal from the middle of the heap), so ties between nodes are broken in the same way.
+     */
+    private static final class Search
     {
-        this.g = g;
-        this.h = h;
-    }
+    	int[] g=new int[0],f=new int[0],parent=new int[0],reached=new int[0],stamps=new int[0],heapIndex=new int[0],heap=new int[0];
+    	boolean[] closed=new boolean[0];
+    	int stamp,size;
 
-    public boolean isEqual(N another)
-    {
-        return index == another.index;
-    }
+    	void begin(int numNodes)
+    	{
+    		if(stamps.length<numNodes)
+    		{
+    			g=new int[numNodes];
+    			f=new int[numNodes];
+    			parent=new int[numNodes];
+    			reached=new int[numNodes];
+    			stamps=new int[numNodes];
+    			heapIndex=new int[numNodes];
+    			heap=new int[numNodes];
+    			closed=new boolean[numNodes];
+    			stamp=0;
+    		}
 
-    public String toString()
-    {
-        return ""+index;
-    }
+    		stamp++;
+    		size=0;
+    	}
 
-	public int compareTo(N another)
-	{
-      if ((g + h) < (another.g + another.h))
-    	  return -1;
-      else  if ((g + h) > (another.g + another.h))
-    	  return 1;
-		
-		return 0;
-	}
-}
+    	boolean isTouched(int node)
+    	{
+    		return stamps[node]==stamp;
+    	}
 
-class E
-{
-	public N node;
-	public MOVE move;
-	public double cost;
-	
-	public E(N node,MOVE move,double cost)
-	{
-		this.node=node;
-		this.move=move;
-		this.cost=cost;
-	}
-}
\ No newline at end of file
+    	void touch(int node)
+    	{
+    		stamps[node]=stamp;
+    		parent[node]=-1;
+    		heapIndex[node]=-1;
+    		closed[node]=false;
+    	}
+
+    	void push(int node)
+    	{
+    		siftUp(size++,node);
+    	}
+
+    	int poll()
+    	{
+    		int result=heap[0];
+    		int last=heap[--size];
+    		heapIndex[result]=-1;
+
+    		if(size>0)
+    			siftDown(0,last);
+
+    		return result;
+    	}
+
+    	void removeAt(int i)
+    	{
+    		heapIndex[heap[i]]=-1;
+    		int s=--size;
+
+    		if(s!=i)
+    		{
+    			int moved=heap[s];
+    			siftDown(i,moved);
+
+    			if(heap[i]==moved)
+    				siftUp(i,moved);
+    		}
+    	}
+
+    	private void siftUp(int k,int node)
+    	{
+    		while(k>0)
+    		{
+    			int parentIndex=(k-1)>>>1;
+    			int e=heap[parentIndex];
+
+    			if(f[node]>=f[e])
+    				break;
+
+    			place(k,e);
+    			k=parentIndex;
+    		}
+
+    		place(k,node);
+    	}
+
+    	private void siftDown(int k,int node)
+    	{
+    		int half=size>>>1;
+
+    		while(k<half)
+    		{
+    			int child=(k<<1)+1;
+    			int c=heap[child];
+    			int right=child+1;
+
+    			if(right<size && f[c]>f[heap[right]])
+    				c=heap[child=right];
+
+    			if(f[node]<=f[c])
+    				break;
+
+    			place(k,c);
+    			k=child;
+    		}
+
+    		place(k,node);
+    	}
+
+    	private void place(int k,int node)
+    	{
+    		heap[k]=node;
+    		heapIndex[node]=k;
+    	}
+
+    	int pathLength(int t)
+    	{
+    		int length=1;
+
+    		if(isTouched(t))
+    			for(int node=parent[t];node!=-1;node=parent[node])
+    				length++;
+
+    		return length;
+    	}
+
+    	/*
+    	 * Writes the path from the start to t (both included), as far as it fits into the buffer.
+    	 */
+    	void copyPath(int t,int[] path)
+    	{
+    		int i=pathLength(t)-1;
+
+    		for(int node=t;node!=-1;node=isTouched(node) ? parent[node] : -1)
+    		{
+    			if(i<path.length)
+    				path[i]=node;
+
+    			i--;
+    		}
+    	}
+    }
+}
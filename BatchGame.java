@@ -0,0 +1,701 @@
+package pacman.game;
+
+import pacman.game.Constants.MOVE;
+import pacman.game.internal.Maze;
+import pacman.game.internal.Node;
+
+import static pacman.game.Constants.*;
+
+/**
+ * A batch of independent games that are advanced in lockstep. Rather than holding one Game object per
+ * game, the state of all games is held in struct-of-arrays form: one flat array per variable with one
+ * entry per game (lane), or one entry per ghost and lane (indexed by lane*NUM_GHOSTS+GHOST.ordinal()).
+ * The immutable maze data is shared by all lanes and flattened into primitive lookup tables once per
+ * maze. This makes the batch suitable for collecting large amounts of experience, e.g., to train a
+ * reinforcement learning agent.
+ *
+ * All moves are given as MOVE.ordinal(): the step methods take one move per lane for Ms Pac-Man and one
+ * move per ghost and lane for the ghosts. The rules are those of the Game class: step() corresponds to
+ * Game.advanceGame(), stepWithoutReverse() to Game.advanceGameWithoutReverse() and so on. Each lane
+ * holds the same pseudo-random number generator as a Game created with the same seed, so a lane and
+ * such a game played with the same moves remain identical.
+ *
+ * Lanes whose game is over are no longer advanced; use reset() to start a new game in a lane.
+ */
+public final class BatchGame
+{
+	private static final int NEUTRAL=MOVE.NEUTRAL.ordinal();
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final GHOST[] GHOSTS=GHOST.values();
+
+	//the modes of the ghost update (see the step methods)
+	private static final int REVERSE_RANDOM=0,REVERSE_NEVER=1,REVERSE_FORCED=2,REVERSE_POWER_PILL=3;
+
+	//the flags of a lane
+	private static final int GAME_OVER=1,PACMAN_EATEN=2,PILL_EATEN=4,POWER_PILL_EATEN=8,EXTRA_LIFE=16,GHOST_EATEN=32;
+
+	//the tables of the mazes, created when a lane first plays the maze (see _tables())
+	private static volatile Tables[] tables=new Tables[NUM_MAZES];
+	private static final int pillWords;
+
+	static
+	{
+		int maxPills=0;
+
+		for(int i=0;i<NUM_MAZES;i++)
+			maxPills=Math.max(maxPills,Maze.readNumPills(i));
+
+		pillWords=(maxPills+63)>>>6;
+	}
+
+	private final int numGames;
+
+	//the data of each lane
+	private final int[] mazeIndex,levelCount,currentLevelTime,totalTime,score,ghostEatMultiplier,timeOfLastGlobalReversal;
+	private final int[] pacmanNodeIndex,pacmanNumberOfLivesRemaining,pacmanLastMove,flags,pillsLeft,powerPillsLeft;
+	private final long[] pills,powerPills,rngState;
+	//the data of each ghost in each lane
+	private final int[] ghostNodeIndices,ghostEdibleTimes,ghostLairTimes,ghostLastMoves;
+
+	/**
+	 * Instantiates a batch of games. Lane i is initialised like new Game(seed+i,initialMaze).
+	 *
+	 * @param numGames The number of games (lanes)
+	 * @param seed The seed of the first lane
+	 * @param initialMaze The maze to start the games with
+	 */
+	public BatchGame(int numGames,long seed,int initialMaze)
+	{
+		this.numGames=numGames;
+
+		mazeIndex=new int[numGames];
+		levelCount=new int[numGames];
+		currentLevelTime=new int[numGames];
+		totalTime=new int[numGames];
+		score=new int[numGames];
+		ghostEatMultiplier=new int[numGames];
+		timeOfLastGlobalReversal=new int[numGames];
+		pacmanNodeIndex=new int[numGames];
+		pacmanNumberOfLivesRemaining=new int[numGames];
+		pacmanLastMove=new int[numGames];
+		flags=new int[numGames];
+		pillsLeft=new int[numGames];
+		powerPillsLeft=new int[numGames];
+		pills=new long[numGames*pillWords];
+		powerPills=new long[numGames];
+		rngState=new long[numGames];
+
+		ghostNodeIndices=new int[numGames*NUM_GHOSTS];
+		ghostEdibleTimes=new int[numGames*NUM_GHOSTS];
+		ghostLairTimes=new int[numGames*NUM_GHOSTS];
+		ghostLastMoves=new int[numGames*NUM_GHOSTS];
+
+		for(int lane=0;lane<numGames;lane++)
+			reset(lane,seed+lane,initialMaze);
+	}
+
+	/**
+	 * Starts a new game in the given lane, initialised like new Game(seed,initialMaze).
+	 *
+	 * @param lane The lane
+	 * @param seed The seed for the pseudo-random number generator
+	 * @param initialMaze The maze to start the game with
+	 */
+	public void reset(int lane,long seed,int initialMaze)
+	{
+		rngState[lane]=seed;
+
+		mazeIndex[lane]=initialMaze;
+		score[lane]=currentLevelTime[lane]=levelCount[lane]=totalTime[lane]=0;
+		ghostEatMultiplier[lane]=1;
+		timeOfLastGlobalReversal[lane]=-1;
+		flags[lane]=0;
+
+		_setPills(lane);
+		_levelReset(lane);
+
+		pacmanNumberOfLivesRemaining[lane]=NUM_LIVES;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////  Game play  //////////////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Advances all games that are not over by one time step: the counterpart of Game.advanceGame().
+	 *
+	 * @param pacManMoves The move of Ms Pac-Man in each lane (MOVE.ordinal())
+	 * @param ghostMoves The move of each ghost in each lane (MOVE.ordinal() at lane*NUM_GHOSTS+GHOST.ordinal()),
+	 * or null if the ghosts should keep their last moves
+	 */
+	public void step(int[] pacManMoves,int[] ghostMoves)
+	{
+		_step(pacManMoves,ghostMoves,REVERSE_RANDOM);
+	}
+
+	/**
+	 * The counterpart of Game.advanceGameWithoutReverse().
+	 */
+	public void stepWithoutReverse(int[] pacManMoves,int[] ghostMoves)
+	{
+		_step(pacManMoves,ghostMoves,REVERSE_NEVER);
+	}
+
+	/**
+	 * The counterpart of Game.advanceGameWithForcedReverse().
+	 */
+	public void stepWithForcedReverse(int[] pacManMoves,int[] ghostMoves)
+	{
+		_step(pacManMoves,ghostMoves,REVERSE_FORCED);
+	}
+
+	/**
+	 * The counterpart of Game.advanceGameWithPowerPillReverseOnly().
+	 */
+	public void stepWithPowerPillReverseOnly(int[] pacManMoves,int[] ghostMoves)
+	{
+		_step(pacManMoves,ghostMoves,REVERSE_POWER_PILL);
+	}
+
+	private void _step(int[] pacManMoves,int[] ghostMoves,int reverseMode)
+	{
+		for(int lane=0;lane<numGames;lane++)
+		{
+			if((flags[lane]&GAME_OVER)!=0)
+				continue;
+
+			Tables t=_tables(mazeIndex[lane]);
+
+			flags[lane]&=EXTRA_LIFE;
+
+			_updatePacMan(lane,t,pacManMoves[lane]);
+			_eatPill(lane,t);
+			_eatPowerPill(lane,t);
+
+			boolean forced=reverseMode==REVERSE_FORCED || (reverseMode==REVERSE_POWER_PILL && (flags[lane]&POWER_PILL_EATEN)!=0);
+
+			if(forced)
+				_reverseGhosts(lane,true);
+			else if(reverseMode==REVERSE_NEVER || reverseMode==REVERSE_POWER_PILL || !_reverseGhosts(lane,false))
+				_updateGhosts(lane,t,ghostMoves);
+
+			_feast(lane,t);
+			_updateLairTimes(lane,t);
+			_updatePacManExtraLife(lane);
+
+			totalTime[lane]++;
+			currentLevelTime[lane]++;
+
+			_checkLevelState(lane);
+		}
+	}
+
+	private void _updatePacMan(int lane,Tables t,int move)
+	{
+		int node=pacmanNodeIndex[lane];
+
+		//take the move if possible, else continue in the same direction, else stay put
+		if(move==NEUTRAL || t.neighbours[node*4+move]==-1)
+		{
+			move=pacmanLastMove[lane];
+
+			if(move==NEUTRAL || t.neighbours[node*4+move]==-1)
+				move=NEUTRAL;
+		}
+
+		pacmanLastMove[lane]=move;
+
+		if(move!=NEUTRAL)
+			pacmanNodeIndex[lane]=t.neighbours[node*4+move];
+	}
+
+	private void _eatPill(int lane,Tables t)
+	{
+		int pillIndex=t.pillIndices[pacmanNodeIndex[lane]];
+
+		if(pillIndex>=0)
+		{
+			int word=lane*pillWords+(pillIndex>>>6);
+			long bit=1L<<pillIndex;
+
+			if((pills[word]&bit)!=0)
+			{
+				score[lane]+=PILL;
+				pills[word]&=~bit;
+				pillsLeft[lane]--;
+				flags[lane]|=PILL_EATEN;
+			}
+		}
+	}
+
+	private void _eatPowerPill(int lane,Tables t)
+	{
+		int powerPillIndex=t.powerPillIndices[pacmanNodeIndex[lane]];
+
+		if(powerPillIndex>=0 && (powerPills[lane]&(1L<<powerPillIndex))!=0)
+		{
+			score[lane]+=POWER_PILL;
+			ghostEatMultiplier[lane]=1;
+			powerPills[lane]&=~(1L<<powerPillIndex);
+			powerPillsLeft[lane]--;
+
+			int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount[lane]%LEVEL_RESET_REDUCTION)));
+
+			for(int i=lane*NUM_GHOSTS;i<(lane+1)*NUM_GHOSTS;i++)
+				ghostEdibleTimes[i]=ghostLairTimes[i]==0 ? newEdibleTime : 0;
+
+			flags[lane]|=POWER_PILL_EATEN;
+		}
+	}
+
+	private void _updateGhosts(int lane,Tables t,int[] ghostMoves)
+	{
+		for(int i=lane*NUM_GHOSTS;i<(lane+1)*NUM_GHOSTS;i++)
+		{
+			if(ghostLairTimes[i]==0 && (ghostEdibleTimes[i]==0 || ghostEdibleTimes[i]%GHOST_SPEED_REDUCTION!=0))
+			{
+				int node=ghostNodeIndices[i];
+				int lastMove=ghostLastMoves[i];
+				int move=ghostMoves==null ? lastMove : ghostMoves[i];
+
+				//take the move if possible and not a reversal, else continue in the same direction, else pick a random move
+				if(move==NEUTRAL || t.neighbours[node*4+move]==-1 || move==_opposite(lastMove))
+				{
+					if(lastMove!=NEUTRAL && t.neighbours[node*4+lastMove]!=-1)
+						move=lastMove;
+					else
+					{
+						int options=node*5+lastMove;
+						move=t.ghostMoves[options*4+_nextInt(lane,t.numGhostMoves[options])];
+					}
+				}
+
+				ghostLastMoves[i]=move;
+				ghostNodeIndices[i]=t.neighbours[node*4+move];
+			}
+		}
+	}
+
+	private boolean _reverseGhosts(int lane,boolean force)
+	{
+		boolean reversed=false;
+		boolean globalReverse=_nextDouble(lane)<GHOST_REVERSAL;
+
+		if(currentLevelTime[lane]<=1 || !(force || globalReverse || (flags[lane]&POWER_PILL_EATEN)!=0))
+			return false;
+
+		Tables t=_tables(mazeIndex[lane]);
+
+		for(int i=lane*NUM_GHOSTS;i<(lane+1)*NUM_GHOSTS;i++)
+		{
+			if(ghostLairTimes[i]==0 && ghostLastMoves[i]!=NEUTRAL)
+			{
+				int reverse=_opposite(ghostLastMoves[i]);
+				ghostLastMoves[i]=reverse;
+				ghostNodeIndices[i]=t.neighbours[ghostNodeIndices[i]*4+reverse];
+				reversed=true;
+				timeOfLastGlobalReversal[lane]=totalTime[lane];
+			}
+		}
+
+		return reversed;
+	}
+
+	private void _feast(int lane,Tables t)
+	{
+		int pacman=pacmanNodeIndex[lane];
+
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			int i=lane*NUM_GHOSTS+g;
+			int distance=t.getShortestPathDistance(pacman,ghostNodeIndices[i]);
+
+			if(distance<=EAT_DISTANCE && distance!=-1)
+			{
+				if(ghostEdibleTimes[i]>0)								//pac-man eats ghost
+				{
+					score[lane]+=GHOST_EAT_SCORE*ghostEatMultiplier[lane];
+					ghostEatMultiplier[lane]*=2;
+					ghostEdibleTimes[i]=0;
+					ghostLairTimes[i]=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount[lane]%LEVEL_RESET_REDUCTION)));
+					ghostNodeIndices[i]=t.maze.lairNodeIndex;
+					ghostLastMoves[i]=NEUTRAL;
+
+					flags[lane]|=GHOST_EATEN<<g;
+				}
+				else													//ghost eats pac-man
+				{
+					pacmanNumberOfLivesRemaining[lane]--;
+					flags[lane]|=PACMAN_EATEN;
+
+					if(pacmanNumberOfLivesRemaining[lane]<=0)
+						flags[lane]|=GAME_OVER;
+					else
+						_levelReset(lane);
+
+					return;
+				}
+			}
+		}
+
+		for(int i=lane*NUM_GHOSTS;i<(lane+1)*NUM_GHOSTS;i++)
+			if(ghostEdibleTimes[i]>0)
+				ghostEdibleTimes[i]--;
+	}
+
+	private void _updateLairTimes(int lane,Tables t)
+	{
+		for(int i=lane*NUM_GHOSTS;i<(lane+1)*NUM_GHOSTS;i++)
+			if(ghostLairTimes[i]>0)
+				if(--ghostLairTimes[i]==0)
+					ghostNodeIndices[i]=t.maze.initialGhostNodeIndex;
+	}
+
+	private void _updatePacManExtraLife(int lane)
+	{
+		if((flags[lane]&EXTRA_LIFE)==0 && score[lane]>=EXTRA_LIFE_SCORE)	//award 1 extra life at 10000 points
+		{
+			flags[lane]|=EXTRA_LIFE;
+			pacmanNumberOfLivesRemaining[lane]++;
+		}
+	}
+
+	private void _checkLevelState(int lane)
+	{
+		//put a cap on the total time a game can be played for
+		if(totalTime[lane]+1>MAX_TIME)
+		{
+			flags[lane]|=GAME_OVER;
+			score[lane]+=pacmanNumberOfLivesRemaining[lane]*AWARD_LIFE_LEFT;
+		}
+		//if all pills have been eaten or the time is up...
+		else if((pillsLeft[lane]==0 && powerPillsLeft[lane]==0) || currentLevelTime[lane]>=LEVEL_LIMIT)
+		{
+			mazeIndex[lane]=(mazeIndex[lane]+1)%NUM_MAZES;
+			levelCount[lane]++;
+			currentLevelTime[lane]=0;
+
+			_setPills(lane);
+			_levelReset(lane);
+		}
+	}
+
+	private void _levelReset(int lane)
+	{
+		Maze maze=_tables(mazeIndex[lane]).maze;
+
+		ghostEatMultiplier[lane]=1;
+
+		for(GHOST ghostType : GHOSTS)
+		{
+			int i=lane*NUM_GHOSTS+ghostType.ordinal();
+
+			ghostNodeIndices[i]=maze.lairNodeIndex;
+			ghostEdibleTimes[i]=0;
+			ghostLairTimes[i]=(int)(ghostType.initialLairTime*(Math.pow(LAIR_REDUCTION,levelCount[lane]%LEVEL_RESET_REDUCTION)));
+			ghostLastMoves[i]=NEUTRAL;
+		}
+
+		pacmanNodeIndex[lane]=maze.initialPacManNodeIndex;
+		pacmanLastMove[lane]=MOVE.LEFT.ordinal();
+	}
+
+	private void _setPills(int lane)
+	{
+		Tables t=_tables(mazeIndex[lane]);
+
+		for(int w=0;w<pillWords;w++)
+		{
+			int remaining=t.numPills-(w<<6);
+			pills[lane*pillWords+w]=remaining>=64 ? -1L : (remaining<=0 ? 0L : (1L<<remaining)-1);
+		}
+
+		powerPills[lane]=(1L<<t.numPowerPills)-1;
+		pillsLeft[lane]=t.numPills;
+		powerPillsLeft[lane]=t.numPowerPills;
+	}
+
+	private static int _opposite(int move)
+	{
+		return move==NEUTRAL ? NEUTRAL : (move+2)&3;
+	}
+
+	/**
+	 * The next random number of the lane: the same generator as Game._nextLong().
+	 */
+	private long _nextLong(int lane)
+	{
+		return Game.mix64(rngState[lane]+=Game.GOLDEN_GAMMA);
+	}
+
+	/**
+	 * A random int in [0,bound), as drawn by Game.
+	 */
+	private int _nextInt(int lane,int bound)
+	{
+		return (int)(((_nextLong(lane)>>>32)*bound)>>>32);
+	}
+
+	/**
+	 * A random double in [0,1), as drawn by Game.
+	 */
+	private double _nextDouble(int lane)
+	{
+		return (_nextLong(lane)>>>11)*0x1.0p-53;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	///////////////////////////  Query the lanes  ///////////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+
+	public int getNumGames()
+	{
+		return numGames;
+	}
+
+	public boolean gameOver(int lane)
+	{
+		return (flags[lane]&GAME_OVER)!=0;
+	}
+
+	/**
+	 * Returns the number of lanes whose game is over.
+	 */
+	public int getNumGamesOver()
+	{
+		int count=0;
+
+		for(int lane=0;lane<numGames;lane++)
+			if((flags[lane]&GAME_OVER)!=0)
+				count++;
+
+		return count;
+	}
+
+	public int getMazeIndex(int lane)
+	{
+		return mazeIndex[lane];
+	}
+
+	public int getCurrentLevel(int lane)
+	{
+		return levelCount[lane];
+	}
+
+	public int getCurrentLevelTime(int lane)
+	{
+		return currentLevelTime[lane];
+	}
+
+	public int getTotalTime(int lane)
+	{
+		return totalTime[lane];
+	}
+
+	public int getScore(int lane)
+	{
+		return score[lane];
+	}
+
+	public int getPacmanCurrentNodeIndex(int lane)
+	{
+		return pacmanNodeIndex[lane];
+	}
+
+	public MOVE getPacmanLastMoveMade(int lane)
+	{
+		return MOVES[pacmanLastMove[lane]];
+	}
+
+	public int getPacmanNumberOfLivesRemaining(int lane)
+	{
+		return pacmanNumberOfLivesRemaining[lane];
+	}
+
+	/**
+	 * Returns the moves available to Ms Pac-Man as a bit mask (bit MOVE.ordinal() is set for every
+	 * direction with a neighbour).
+	 */
+	public int getPacmanPossibleMoves(int lane)
+	{
+		return _tables(mazeIndex[lane]).moveMasks[pacmanNodeIndex[lane]];
+	}
+
+	public int getGhostCurrentNodeIndex(int lane,GHOST ghostType)
+	{
+		return ghostNodeIndices[lane*NUM_GHOSTS+ghostType.ordinal()];
+	}
+
+	public MOVE getGhostLastMoveMade(int lane,GHOST ghostType)
+	{
+		return MOVES[ghostLastMoves[lane*NUM_GHOSTS+ghostType.ordinal()]];
+	}
+
+	public int getGhostEdibleTime(int lane,GHOST ghostType)
+	{
+		return ghostEdibleTimes[lane*NUM_GHOSTS+ghostType.ordinal()];
+	}
+
+	public int getGhostLairTime(int lane,GHOST ghostType)
+	{
+		return ghostLairTimes[lane*NUM_GHOSTS+ghostType.ordinal()];
+	}
+
+	public boolean isPillStillAvailable(int lane,int pillIndex)
+	{
+		return (pills[lane*pillWords+(pillIndex>>>6)]&(1L<<pillIndex))!=0;
+	}
+
+	public boolean isPowerPillStillAvailable(int lane,int powerPillIndex)
+	{
+		return (powerPills[lane]&(1L<<powerPillIndex))!=0;
+	}
+
+	public int getNumberOfActivePills(int lane)
+	{
+		return pillsLeft[lane];
+	}
+
+	public int getNumberOfActivePowerPills(int lane)
+	{
+		return powerPillsLeft[lane];
+	}
+
+	public boolean wasPacManEaten(int lane)
+	{
+		return (flags[lane]&PACMAN_EATEN)!=0;
+	}
+
+	public boolean wasPillEaten(int lane)
+	{
+		return (flags[lane]&PILL_EATEN)!=0;
+	}
+
+	public boolean wasPowerPillEaten(int lane)
+	{
+		return (flags[lane]&POWER_PILL_EATEN)!=0;
+	}
+
+	public boolean wasGhostEaten(int lane,GHOST ghostType)
+	{
+		return (flags[lane]&(GHOST_EATEN<<ghostType.ordinal()))!=0;
+	}
+
+	/**
+	 * Returns the state of the given lane in the format of Game.getGameState(). Use Game.setGameState()
+	 * to turn a lane into a Game, e.g., to visualise it or to query it with the methods of Game.
+	 *
+	 * @param lane The lane
+	 * @return the state of the lane as a string
+	 */
+	public String getGameState(int lane)
+	{
+		StringBuilder sb=new StringBuilder();
+
+		sb.append(mazeIndex[lane]+","+totalTime[lane]+","+score[lane]+","+currentLevelTime[lane]+","+levelCount[lane]+","
+				+pacmanNodeIndex[lane]+","+MOVES[pacmanLastMove[lane]]+","+pacmanNumberOfLivesRemaining[lane]+","+((flags[lane]&EXTRA_LIFE)!=0)+",");
+
+		for(int i=lane*NUM_GHOSTS;i<(lane+1)*NUM_GHOSTS;i++)
+			sb.append(ghostNodeIndices[i]+","+ghostEdibleTimes[i]+","+ghostLairTimes[i]+","+MOVES[ghostLastMoves[i]]+",");
+
+		Tables t=_tables(mazeIndex[lane]);
+
+		for(int i=0;i<t.numPills;i++)
+			sb.append(isPillStillAvailable(lane,i) ? "1" : "0");
+
+		sb.append(",");
+
+		for(int i=0;i<t.numPowerPills;i++)
+			sb.append(isPowerPillStillAvailable(lane,i) ? "1" : "0");
+
+		sb.append(","+timeOfLastGlobalReversal[lane]+","+wasPacManEaten(lane)+",");
+
+		for(GHOST ghostType : GHOSTS)
+			sb.append(wasGhostEaten(lane,ghostType)+",");
+
+		sb.append(wasPillEaten(lane)+","+wasPowerPillEaten(lane));
+
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the tables of a maze, which are created (and the maze loaded) the first time they are needed.
+	 */
+	private static Tables _tables(int mazeIndex)
+	{
+		Tables t=tables[mazeIndex];
+
+		if(t!=null)
+			return t;
+
+		synchronized(BatchGame.class)
+		{
+			if(tables[mazeIndex]==null)
+			{
+				Tables[] created=tables.clone();
+				created[mazeIndex]=new Tables(Game.getMaze(mazeIndex));
+				tables=created;
+			}
+
+			return tables[mazeIndex];
+		}
+	}
+
+	/*
+	 * The data of a maze flattened into primitive arrays.
+	 */
+	private static final class Tables
+	{
+		final Maze maze;
+		final int numPills,numPowerPills;
+		final int[] neighbours;			//node*4+move: the neighbour in that direction, or -1 (Maze.neighbours)
+		final int[] moveMasks;			//node: the directions with a neighbour as a bit mask
+		final int[] ghostMoves;			//(node*5+lastMove)*4+k: the k-th move in allPossibleMoves.get(lastMove)
+		final int[] numGhostMoves;		//node*5+lastMove: the number of these moves
+		final int[] pillIndices,powerPillIndices;
+
+		Tables(Maze maze)
+		{
+			this.maze=maze;
+
+			int numNodes=maze.graph.length;
+
+			numPills=maze.pillIndices.length;
+			numPowerPills=maze.powerPillIndices.length;
+			neighbours=maze.neighbours;
+			moveMasks=new int[numNodes];
+			ghostMoves=new int[numNodes*5*4];
+			numGhostMoves=new int[numNodes*5];
+			pillIndices=new int[numNodes];
+			powerPillIndices=new int[numNodes];
+
+			for(int n=0;n<numNodes;n++)
+			{
+				Node node=maze.graph[n];
+
+				moveMasks[n]=maze.moveMasks[n*5+MOVE.NEUTRAL.ordinal()];
+
+				for(int m=0;m<MOVES.length;m++)
+				{
+					MOVE[] moves=node.allPossibleMoves.get(MOVES[m]);
+
+					if(moves!=null)
+					{
+						numGhostMoves[n*5+m]=moves.length;
+
+						for(int k=0;k<moves.length;k++)
+							ghostMoves[(n*5+m)*4+k]=moves[k].ordinal();
+					}
+				}
+
+				pillIndices[n]=node.pillIndex;
+				powerPillIndices[n]=node.powerPillIndex;
+			}
+		}
+
+		int getShortestPathDistance(int from,int to)
+		{
+			return from==to ? 0 : maze.getShortestPathDistance(from,to);
+		}
+	}
+}
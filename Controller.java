@@ -1,21 +1,31 @@
 package pacman.controllers;
 
+import java.util.concurrent.locks.LockSupport;
+
 import pacman.game.Game;
+import pacman.game.util.LatencyHistogram;
 
 /**
  * This class is the superclass of your controller. In contains the code required to run the 
- * controller as a thread. In provides numerous methods that allow the Executor to use the 
+ * controller asynchronously. In provides numerous methods that allow the Executor to use the 
  * controller in various different execution modes. Your controller only needs to provide the
  * code for the getMove() method.
  *
+ * In the timed modes, each update() queues the computation of the next move on the controller's
+ * ControllerScheduler, a pool of worker threads shared by all controllers.
+ *
  * @param <T> The generic type of the move to be returned (either a single move for Ms Pac-Man or an EnumMap for the ghosts).
  */
 public abstract class Controller<T> implements Runnable
 {
-	private boolean alive,wasSignalled,hasComputed;
-	private volatile boolean threadStillRunning;
+	private volatile boolean alive,hasComputed;
+	private volatile boolean threadStillRunning;	//a call of getMove() is in progress
+	private int updates,missedTicks;
 	private long timeDue;
 	private Game game;
+	private Thread updater;		//the thread that called update(): it is unparked when the move has been computed
+	private ControllerScheduler scheduler;
+	private final LatencyHistogram latencies=new LatencyHistogram();	//of the calls of getMove() made by the framework
 	protected T lastMove;	//this is now protected. You can set this directly in your getMove() method to save an immediate response.
 
 	/**
@@ -24,45 +34,166 @@ public abstract class Controller<T> implements Runnable
 	public Controller()
 	{
 		alive=true;
-		wasSignalled=false;
 		hasComputed=false;
 		threadStillRunning=false;
 	}
 
 	/**
-	 * Terminates the controller: a signal is sent and the flag 'alive' is set to false. When
-	 * the thread wakes up, the outer loop will terminate and the thread finishes.
+	 * Sets the scheduler that computes the moves of this controller (ControllerScheduler.getDefault() unless set).
+	 *
+	 * @param scheduler The scheduler
 	 */
-	public final void terminate()
+	public final synchronized void setScheduler(ControllerScheduler scheduler)
 	{
-		alive=false;
-		wasSignalled=true;
+		this.scheduler=scheduler;
+	}
 
+	/**
+	 * Terminates the controller: the flag 'alive' is set to false and a thread running the controller
+	 * (see run()) finishes. A move that has not been computed by then is counted as missed.
+	 */
+	public final void terminate()
+	{
 		synchronized(this)
 		{
-			notify();
+			if(alive && updates>0 && !hasComputed)
+				missedTicks++;
+
+			alive=false;
+			notifyAll();
 		}
 	}
 
 	/**
 	 * Updates the game state: a copy of the game is passed to this method and the class variable is
-	 * updated accordingly.
+	 * updated accordingly. The next move is then computed by the scheduler of the controller unless the
+	 * previous computation is still in progress, in which case the update is skipped. Once the move has
+	 * been computed, the calling thread is unparked (see LockSupport), so it may wait for the move
+	 * with LockSupport.parkNanos() rather than by polling hasComputed().
 	 *
 	 * @param game A copy of the current game
 	 * @param timeDue The time the next move is due
 	 */
 	public final void update(Game game,long timeDue)
 	{
+		ControllerScheduler scheduler;
+
 		synchronized(this)
 		{
+			if(updates>0 && !hasComputed)
+				missedTicks++;
+
 			this.game=game;
 			this.timeDue=timeDue;
-			wasSignalled=true;
+			updater=Thread.currentThread();
+			updates++;
 			hasComputed=false;
-			notify();
+
+			if(threadStillRunning)
+				return;
+
+			threadStillRunning=true;
+
+			if(this.scheduler==null)
+				this.scheduler=ControllerScheduler.getDefault();
+
+			scheduler=this.scheduler;
+		}
+
+		if(!scheduler.submit(this))
+			threadStillRunning=false;
+	}
+
+	/**
+	 * Computes the move for the latest update (called by the scheduler). The move becomes the controller's
+	 * move in any case, but only counts as computed if no other update has arrived and it is not late.
+	 */
+	final void compute()
+	{
+		Game game;
+		long timeDue;
+		int update;
+
+		synchronized(this)
+		{
+			game=this.game;
+			timeDue=this.timeDue;
+			update=updates;
+		}
+
+		T move=null;
+		boolean returned=false;
+		long start=System.nanoTime();
+
+		try
+		{
+			move=getMove(game,timeDue);
+			returned=true;
+		}
+		catch(RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			//also when getMove() throws an Error: otherwise every later update would be skipped
+			Thread waiting=null;
+
+			//the controller must be ready for the next update before the thread that is waiting for the move is woken up
+			synchronized(this)
+			{
+				latencies.record(System.nanoTime()-start);
+				threadStillRunning=false;
+
+				if(returned)
+					lastMove=move;
+
+				if(returned && update==updates && System.currentTimeMillis()<=timeDue)
+				{
+					hasComputed=true;
+					waiting=updater;
+				}
+			}
+
+			if(waiting!=null)
+				LockSupport.unpark(waiting);
 		}
 	}
 
+	/**
+	 * Calls getMove(game,timeDue) and records how long it took (see getLatencies()). The Executor uses this
+	 * method to compute moves in the modes in which it waits for the controllers.
+	 *
+	 * @param game A copy of the current game
+	 * @param timeDue The time the next move is due
+	 * @return The move computed
+	 */
+	public final T getMoveTimed(Game game,long timeDue)
+	{
+		long start=System.nanoTime();
+		T move=getMove(game,timeDue);
+		long latency=System.nanoTime()-start;
+
+		synchronized(this)
+		{
+			latencies.record(latency);
+		}
+
+		return move;
+	}
+
+	/**
+	 * The latencies of the moves computed so far (by the scheduler or by getMoveTimed()). The histogram is
+	 * updated while the controller is in use, so it should be read when the game is over or while holding
+	 * the lock of the controller.
+	 *
+	 * @return The histogram of the latencies of getMove()
+	 */
+	public final LatencyHistogram getLatencies()
+	{
+		return latencies;
+	}
+
 	/**
 	 * Retrieves the move from the controller (whatever is stored in the class variable).
 	 *
@@ -73,46 +204,52 @@ public abstract class Controller<T> implements Runnable
 		return lastMove;
 	}
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Runnable#run()
+	/**
+	 * The moves are computed by the scheduler of the controller, so the controller no longer needs a
+	 * thread of its own. For compatibility, it can still be run in a thread: the thread waits until the
+	 * controller is terminated.
 	 */
 	public final void run()
 	{
-		while(alive)
+		synchronized(this)
 		{
-			synchronized(this)
+			while(alive)
 			{
-				while(!wasSignalled)
+				try
 				{
-					try
-					{
-						wait();
-					}
-					catch(InterruptedException e)
-					{
-						e.printStackTrace();
-					}
+					wait();
 				}
-				
-				if(!threadStillRunning)
+				catch(InterruptedException e)
 				{
-					new Thread()
-					{
-						public void run()
-						{
-							threadStillRunning=true;
-							lastMove = getMove(game,timeDue);
-							hasComputed=true;
-							threadStillRunning=false;
-						}
-					}.start();
+					return;
 				}
-				
-				wasSignalled=false;
 			}
 		}
 	}
 	
+	/**
+	 * The number of updates for which the controller did not compute a move by the time it was due
+	 * (including the updates skipped while a previous computation was still in progress). The game then
+	 * proceeded with the previous move.
+	 *
+	 * @return The number of ticks missed
+	 */
+	public final synchronized int getMissedTicks()
+	{
+		return missedTicks;
+	}
+
+	/**
+	 * Sets the number of ticks missed back to 0 and forgets the updates so far, so the first update of
+	 * the next game is not counted against the last move of the previous one. The Executor calls this
+	 * method before each game.
+	 */
+	public final synchronized void resetMissedTicks()
+	{
+		missedTicks=0;
+		updates=0;
+	}
+
 	/**
 	 * This method is used to check whether the controller computed a move since the last
 	 * update of the game.
@@ -0,0 +1,108 @@
+package pacman.controllers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the moves of controllers on a fixed set of worker threads. Controller.update() hands the computation of
+ * the next move to the scheduler of the controller instead of starting a thread, so no threads are created while
+ * games are played, however many ticks and games there are.
+ *
+ * A controller has at most one computation in progress. If it has not returned by the time the next move is due,
+ * the tick is abandoned: the game proceeds with the controller's last move, the tick is counted as missed (see
+ * Controller.getMissedTicks()) and the controller skips the updates that arrive until it has finished. The workers
+ * are daemon threads, so an unfinished computation never prevents the program from exiting.
+ */
+public final class ControllerScheduler
+{
+	private static final int QUEUE_CAPACITY=1024;		//pending computations (at most one per controller)
+
+	private static volatile ControllerScheduler defaultScheduler;
+
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * Creates a scheduler with the number of worker threads given. Two workers are enough to run the
+	 * controllers of one game at the same time.
+	 *
+	 * @param numWorkers The number of worker threads
+	 */
+	public ControllerScheduler(int numWorkers)
+	{
+		final AtomicInteger count=new AtomicInteger();
+
+		pool=new ThreadPoolExecutor(numWorkers,numWorkers,0L,TimeUnit.MILLISECONDS,new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+				new ThreadFactory()
+				{
+					public Thread newThread(Runnable task)
+					{
+						Thread thread=new Thread(task,"controller-"+count.incrementAndGet());
+						thread.setDaemon(true);
+
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * The scheduler used by controllers unless another one is set (see Controller.setScheduler()): one worker
+	 * per processor, but at least two.
+	 *
+	 * @return the default scheduler
+	 */
+	public static ControllerScheduler getDefault()
+	{
+		ControllerScheduler scheduler=defaultScheduler;
+
+		if(scheduler==null)
+		{
+			synchronized(ControllerScheduler.class)
+			{
+				if(defaultScheduler==null)
+					defaultScheduler=new ControllerScheduler(Math.max(2,Runtime.getRuntime().availableProcessors()));
+
+				scheduler=defaultScheduler;
+			}
+		}
+
+		return scheduler;
+	}
+
+	/**
+	 * Queues the computation of the controller's next move.
+	 *
+	 * @return false if the computation could not be queued (the scheduler has been shut down or is overloaded)
+	 */
+	boolean submit(final Controller<?> controller)
+	{
+		try
+		{
+			pool.execute(new Runnable()
+			{
+				public void run()
+				{
+					controller.compute();
+				}
+			});
+
+			return true;
+		}
+		catch(RejectedExecutionException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Stops the workers once the computations in progress have finished; later updates of the controllers
+	 * using this scheduler are missed.
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+}
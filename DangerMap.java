@@ -0,0 +1,306 @@
+package pacman.game.util;
+
+import java.util.Arrays;
+
+import pacman.game.Game;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.internal.IntPath;
+import pacman.game.internal.Maze;
+
+import static pacman.game.Constants.*;
+
+/**
+ * For the state of a game, the earliest time (in ticks from now) at which each ghost may be at each node of the maze while
+ * it is not edible, i.e., while it can eat Ms Pac-Man. The ghosts are assumed to move without reversing (starting with their
+ * last move), at half speed while they are edible (see GHOST_SPEED_REDUCTION) and only once they have left the lair; an edible
+ * ghost may also be eaten right away and come back from the lair. The reversals the engine may force (at random or when a
+ * power pill is eaten) and any power pills eaten in the future are not taken into account.
+ *
+ * Since the times are lower bounds, a path that isPathSafe() accepts cannot end in Ms Pac-Man being eaten while she
+ * follows it, whatever the ghosts do (as long as they do not reverse).
+ *
+ * Maps are immutable and cached by get(): all callers asking for the same state (e.g., the controllers of a tick, which
+ * receive copies of the same game) share one map.
+ */
+public final class DangerMap
+{
+	//the time returned for the nodes a ghost cannot reach
+	public static final int NEVER=Integer.MAX_VALUE;
+
+	private static final char UNREACHABLE=0xffff;
+	private static final int CACHE_SIZE=16;
+	private static final GHOST[] GHOSTS=GHOST.values();
+
+	//recently computed maps, indexed by a hash of the state (entries are replaced freely and may be read without locking)
+	private static final DangerMap[] cache=new DangerMap[CACHE_SIZE];
+
+	private static final ThreadLocal<Workspace> workspaces=new ThreadLocal<Workspace>()
+	{
+		protected Workspace initialValue()
+		{
+			return new Workspace();
+		}
+	};
+
+	private final int totalTime;
+	private final long stateHash;
+	private final int numNodes;
+	private final char[] arrivalTimes;		//ghost*numNodes+node
+	private final char[] dangerTimes;		//node: the earliest time a ghost may be within EAT_DISTANCE
+
+	/**
+	 * Returns the map of the state of the game given, computing it only if the state was not requested recently.
+	 *
+	 * @param game The game
+	 * @return the map
+	 */
+	public static DangerMap get(Game game)
+	{
+		int totalTime=game.getTotalTime();
+		long stateHash=game.getStateHash();
+		int slot=_slot(totalTime,stateHash);
+
+		DangerMap map=cache[slot];
+
+		if(map==null || map.totalTime!=totalTime || map.stateHash!=stateHash)
+		{
+			map=new DangerMap(game);
+			cache[slot]=map;
+		}
+
+		return map;
+	}
+
+	private static int _slot(int totalTime,long stateHash)
+	{
+		long h=(stateHash^totalTime)*0x9E3779B97F4A7C15L;
+
+		return (int)(h>>>60)&(CACHE_SIZE-1);
+	}
+
+	private DangerMap(Game game)
+	{
+		Maze maze=game.getCurrentMaze();
+
+		this.totalTime=game.getTotalTime();
+		this.stateHash=game.getStateHash();
+		this.numNodes=maze.graph.length;
+		this.arrivalTimes=new char[NUM_GHOSTS*numNodes];
+		this.dangerTimes=new char[numNodes];
+
+		Workspace ws=workspaces.get();
+		ws.begin(numNodes);
+
+		Arrays.fill(dangerTimes,UNREACHABLE);
+
+		//a ghost that is eaten returns to the initial node once its lair time has run out (at the earliest, it is eaten now)
+		int[] fromLair=ws.fromLair;
+		ws.sources[0]=maze.initialGhostNodeIndex;
+		ws.lastMoves[0]=MOVE.NEUTRAL;
+		game.computeDistanceField(ws.sources,ws.lastMoves,fromLair);
+
+		int eatenLairTime=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,game.getCurrentLevel()%LEVEL_RESET_REDUCTION)));
+
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			GHOST ghost=GHOSTS[g];
+			int lairTime=game.getGhostLairTime(ghost);
+			int edibleTime=game.getGhostEdibleTime(ghost);
+
+			if(lairTime==0)
+			{
+				ws.sources[0]=game.getGhostCurrentNodeIndex(ghost);
+				ws.lastMoves[0]=game.getGhostLastMoveMade(ghost);
+				game.computeDistanceField(ws.sources,ws.lastMoves,ws.distances);
+			}
+
+			for(int node=0;node<numNodes;node++)
+			{
+				long time;
+
+				if(lairTime>0)
+					time=_add(lairTime,fromLair[node]);
+				else
+				{
+					time=ws.distances[node]==Integer.MAX_VALUE ? NEVER : _arrivalTime(ws.distances[node],edibleTime);
+
+					if(edibleTime>0)
+						time=Math.min(time,_add(eatenLairTime,fromLair[node]));
+				}
+
+				char value=(char)Math.min(time,UNREACHABLE);
+				arrivalTimes[g*numNodes+node]=value;
+
+				if(value<dangerTimes[node])
+					dangerTimes[node]=value;
+			}
+		}
+
+		_spread(maze.neighbours,ws);
+	}
+
+	private static long _add(int time,int distance)
+	{
+		return distance==Integer.MAX_VALUE ? NEVER : (long)time+distance;
+	}
+
+	/**
+	 * The number of ticks a ghost that starts with the edible time given needs to make a number of moves and be
+	 * dangerous. As in the engine, an edible ghost only moves in the ticks in which its edible time is not a multiple of
+	 * GHOST_SPEED_REDUCTION, and it is still edible in the tick its edible time reaches 0 (the time is decreased after
+	 * Ms Pac-Man and the ghosts have met).
+	 */
+	private static int _arrivalTime(int moves,int edibleTime)
+	{
+		if(edibleTime==0)
+			return moves;
+
+		int edibleMoves=_edibleMoves(edibleTime,edibleTime);
+
+		if(moves>edibleMoves)
+			return edibleTime+moves-edibleMoves;
+
+		//the first tick by which the ghost can have made the moves (the number of moves only grows with the ticks)
+		int low=0,high=edibleTime;
+
+		while(low<high)
+		{
+			int ticks=(low+high)>>>1;
+
+			if(_edibleMoves(edibleTime,ticks)>=moves)
+				high=ticks;
+			else
+				low=ticks+1;
+		}
+
+		return Math.max(low,edibleTime+1);
+	}
+
+	/**
+	 * The number of moves a ghost that starts with the edible time given makes in the ticks given (at most the edible
+	 * time): in these ticks its edible time goes from edibleTime down to edibleTime-ticks+1, and it stays put whenever
+	 * this is a multiple of GHOST_SPEED_REDUCTION.
+	 */
+	private static int _edibleMoves(int edibleTime,int ticks)
+	{
+		return ticks-(edibleTime/GHOST_SPEED_REDUCTION-(edibleTime-ticks)/GHOST_SPEED_REDUCTION);
+	}
+
+	/**
+	 * A ghost eats Ms Pac-Man if it comes within EAT_DISTANCE of her, so the danger of every node is spread to the nodes
+	 * around it.
+	 */
+	private void _spread(int[] neighbours,Workspace ws)
+	{
+		char[] previous=ws.spread;
+
+		for(int pass=0;pass<EAT_DISTANCE;pass++)
+		{
+			System.arraycopy(dangerTimes,0,previous,0,numNodes);
+
+			for(int node=0;node<numNodes;node++)
+				for(int m=0;m<4;m++)
+				{
+					int next=neighbours[node*4+m];
+
+					if(next!=-1 && previous[next]<dangerTimes[node])
+						dangerTimes[node]=previous[next];
+				}
+		}
+	}
+
+	/**
+	 * The total time of the game the map was computed for.
+	 */
+	public int getTotalTime()
+	{
+		return totalTime;
+	}
+
+	/**
+	 * The earliest time (in ticks from now) at which the ghost may be at the node while it is not edible, or NEVER.
+	 *
+	 * @param ghost The ghost
+	 * @param nodeIndex The node index
+	 * @return the arrival time
+	 */
+	public int getArrivalTime(GHOST ghost,int nodeIndex)
+	{
+		return _time(arrivalTimes[ghost.ordinal()*numNodes+nodeIndex]);
+	}
+
+	/**
+	 * The earliest time (in ticks from now) at which any ghost may be within EAT_DISTANCE of the node while it is not
+	 * edible, or NEVER. Ms Pac-Man is safe at the node in all earlier ticks.
+	 *
+	 * @param nodeIndex The node index
+	 * @return the danger time
+	 */
+	public int getDangerTime(int nodeIndex)
+	{
+		return _time(dangerTimes[nodeIndex]);
+	}
+
+	/**
+	 * Whether Ms Pac-Man is safe at the node in the tick given (in ticks from now).
+	 */
+	public boolean isSafe(int nodeIndex,int time)
+	{
+		return time<dangerTimes[nodeIndex];
+	}
+
+	/**
+	 * Whether Ms Pac-Man can follow the path given from her current node without any ghost catching her: the
+	 * i-th node of the path (as returned by Game.getShortestPath()) is reached in tick i+1.
+	 *
+	 * @param path The nodes of the path, excluding the current one
+	 * @return whether the path is safe
+	 */
+	public boolean isPathSafe(int[] path)
+	{
+		for(int i=0;i<path.length;i++)
+			if(!isSafe(path[i],i+1))
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * As isPathSafe(int[]) for a path obtained with Game.getShortestPath(from,to,IntPath).
+	 */
+	public boolean isPathSafe(IntPath path)
+	{
+		for(int i=0;i<path.length();i++)
+			if(!isSafe(path.get(i),i+1))
+				return false;
+
+		return true;
+	}
+
+	private static int _time(char time)
+	{
+		return time==UNREACHABLE ? NEVER : time;
+	}
+
+	/*
+	 * The buffers used to compute a map, one per thread.
+	 */
+	private static final class Workspace
+	{
+		final int[] sources=new int[1];
+		final MOVE[] lastMoves=new MOVE[1];
+		int[] distances=new int[0],fromLair=new int[0];
+		char[] spread=new char[0];
+
+		void begin(int numNodes)
+		{
+			if(distances.length<numNodes)
+			{
+				distances=new int[numNodes];
+				fromLair=new int[numNodes];
+				spread=new char[numNodes];
+			}
+		}
+	}
+}
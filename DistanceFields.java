@@ -0,0 +1,185 @@
+package pacman.game.internal;
+
+import pacman.game.Constants.MOVE;
+
+/*
+ * Computes the distance from a set of sources to every node of a maze in a single breadth-first search, instead of one
+ * look-up per source and node. Without restrictions, the search runs over the nodes of the maze and the result equals the
+ * minimum of the shortest path distances from the sources. If the agents may not reverse (the ghosts), the search runs over
+ * the states (node, last move made): a state only leads to the moves allowed by maze.moveMasks, so the distance of a node
+ * is the length of the shortest walk without reversals from the nearest source.
+ *
+ * The queue and the visited marks are kept per thread and reused, so computing a field allocates nothing.
+ */
+public final class DistanceFields
+{
+	public static final int UNREACHABLE=Integer.MAX_VALUE;
+
+	private static final int NEUTRAL=MOVE.NEUTRAL.ordinal();
+
+	private static final ThreadLocal<Workspace> workspaces=new ThreadLocal<Workspace>()
+	{
+		protected Workspace initialValue()
+		{
+			return new Workspace();
+		}
+	};
+
+	private DistanceFields()
+	{
+	}
+
+	/**
+	 * Fills 'out' with the distance from the nearest source to every node (UNREACHABLE if no source can reach the node).
+	 *
+	 * @param maze The maze
+	 * @param sources The node indices of the sources; entries of -1 are ignored
+	 * @param lastMoves The last move made at each source, or null if reversing is allowed. MOVE.NEUTRAL allows any first move.
+	 * @param out The distances, indexed by node index (at least maze.graph.length long)
+	 */
+	public static void compute(Maze maze,int[] sources,MOVE[] lastMoves,int[] out)
+	{
+		int numNodes=maze.graph.length;
+
+		if(out.length<numNodes)
+			throw new IllegalArgumentException("The buffer has "+out.length+" entries but the maze has "+numNodes+" nodes");
+
+		if(lastMoves!=null && lastMoves.length<sources.length)
+			throw new IllegalArgumentException("Expected a last move for each of the "+sources.length+" sources");
+
+		for(int i=0;i<numNodes;i++)
+			out[i]=UNREACHABLE;
+
+		Workspace ws=workspaces.get();
+
+		if(lastMoves==null)
+			_searchNodes(maze.neighbours,sources,out,ws.begin(numNodes));
+		else
+			_searchStates(maze.neighbours,maze.moveMasks,sources,lastMoves,out,ws.begin(numNodes*5));
+	}
+
+	/**
+	 * Breadth-first search over the nodes.
+	 */
+	private static void _searchNodes(int[] neighbours,int[] sources,int[] out,Workspace ws)
+	{
+		int[] queue=ws.queue;
+		int head=0,tail=0;
+
+		for(int s=0;s<sources.length;s++)
+		{
+			int source=sources[s];
+
+			if(source!=-1 && ws.visit(source))
+			{
+				out[source]=0;
+				queue[tail++]=source;
+			}
+		}
+
+		while(head<tail)
+		{
+			int node=queue[head++];
+			int distance=out[node]+1;
+
+			for(int m=0;m<4;m++)
+			{
+				int next=neighbours[node*4+m];
+
+				if(next!=-1 && ws.visit(next))
+				{
+					out[next]=distance;
+					queue[tail++]=next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Breadth-first search over the states node*5+lastMove, level by level (the queue holds the states, the distance of the
+	 * current level is counted separately as a node may be reached with several headings).
+	 */
+	private static void _searchStates(int[] neighbours,byte[] moveMasks,int[] sources,MOVE[] lastMoves,int[] out,Workspace ws)
+	{
+		int[] queue=ws.queue;
+		int head=0,tail=0;
+
+		for(int s=0;s<sources.length;s++)
+		{
+			int source=sources[s];
+
+			if(source!=-1)
+			{
+				int state=source*5+(lastMoves[s]==null ? NEUTRAL : lastMoves[s].ordinal());
+
+				if(ws.visit(state))
+				{
+					out[source]=0;
+					queue[tail++]=state;
+				}
+			}
+		}
+
+		for(int distance=1;head<tail;distance++)
+		{
+			int levelEnd=tail;
+
+			while(head<levelEnd)
+			{
+				int state=queue[head++];
+				int node=state/5;
+
+				for(int moves=moveMasks[state];moves!=0;moves&=moves-1)
+				{
+					int move=Integer.numberOfTrailingZeros(moves);
+					int next=neighbours[node*4+move];
+					int nextState=next*5+move;
+
+					if(ws.visit(nextState))
+					{
+						if(distance<out[next])
+							out[next]=distance;
+
+						queue[tail++]=nextState;
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * The queue and the visited marks of a search, one per thread.
+	 */
+	private static final class Workspace
+	{
+		int[] queue=new int[0],stamps=new int[0];
+		int stamp;
+
+		Workspace begin(int size)
+		{
+			if(stamps.length<size)
+			{
+				queue=new int[size];
+				stamps=new int[size];
+				stamp=0;
+			}
+
+			stamp++;
+
+			return this;
+		}
+
+		/**
+		 * Marks the entry as visited; returns false if it was already.
+		 */
+		boolean visit(int i)
+		{
+			if(stamps[i]==stamp)
+				return false;
+
+			stamps[i]=stamp;
+
+			return true;
+		}
+	}
+}
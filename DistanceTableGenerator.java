@@ -0,0 +1,57 @@
+package pacman.game.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+import static pacman.game.Constants.*;
+
+/*
+ * Converts the text files of pre-computed shortest path distances (data/distances/da etc., one distance per line) into
+ * the binary format read by Maze: one unsigned 16-bit entry per distance, big-endian, in the same order. The distance -1
+ * (used for the node that cannot be reached) is stored as 0xffff. The binary files are much smaller than the text
+ * files and are mapped into memory instead of being parsed. Maze writes them itself the first time it parses a text file,
+ * so the generator is only needed to convert the files ahead of time (e.g., for a read-only installation).
+ *
+ * Usage: java pacman.game.internal.DistanceTableGenerator [distance file ...]
+ * Without arguments, the files of all mazes (Constants.distNames) are converted.
+ */
+public final class DistanceTableGenerator
+{
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length==0)
+		{
+			args=new String[distNames.length];
+			
+			for(int i=0;i<distNames.length;i++)
+				args[i]=pathDistances+System.getProperty("file.separator")+distNames[i];
+		}
+		
+		for(String fileName : args)
+		{
+			File textFile=new File(fileName);
+			File binaryFile=new File(fileName+Maze.BINARY_DISTANCES);
+			
+			int numEntries=convert(textFile,binaryFile);
+			System.out.println(textFile+" -> "+binaryFile+" ("+numEntries+" distances)");
+		}
+	}
+	
+	/**
+	 * Converts a text file of distances into a binary one.
+	 *
+	 * @param textFile The text file, one distance per line
+	 * @param binaryFile The binary file to be written
+	 * @return the number of distances converted
+	 * @throws IOException if a file cannot be read or written, or a distance does not fit into the format
+	 */
+	public static int convert(File textFile,File binaryFile) throws IOException
+	{
+		int[] distances=Maze.readTextDistances(textFile,-1);
+		char[] entries=Maze.toEntries(distances,textFile);
+		
+		Maze.writeBinaryDistances(entries,binaryFile);
+		
+		return distances.length;
+	}
+}
@@ -10,6 +10,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
 
 import dataRecording.DataCollectorController;
 import pacman.controllers.Controller;
@@ -29,8 +30,10 @@ import pacman.controllers.agents.QLearningAgent;
 import pacman.controllers.agents.PolicyIterationAgent;
 import pacman.controllers.agents.ValueIterationAgent;
 import pacman.controllers.examples.NullGhosts;
+import pacman.game.BatchGame;
 import pacman.game.Game;
 import pacman.game.GameView;
+import pacman.game.util.LatencyHistogram;
 
 import static pacman.game.Constants.*;
 
@@ -48,6 +51,9 @@ import static pacman.game.Constants.*;
 @SuppressWarnings("unused")
 public class Executor
 {	
+	//the file the latencies of the controllers are appended to at the end of each game (printed if null)
+	private String telemetryFileName;
+	
 	/**
 	 * The main method. Several options are listed - simply remove comments to use the option you want.
 	 *
@@ -102,6 +108,12 @@ public class Executor
 	    //run multiple games in batch mode - good for testing.
 		//int numTrials=10;
 //		exec.runExperiment(new RandomPacMan(),new RandomGhosts(),numTrials);
+		
+		//run the trials of an experiment in parallel on all cores (the scores do not depend on the number of threads).
+//		System.out.println(new ParallelExperiment(StarterPacMan::new,Legacy2TheReckoning::new).run(1000));
+		
+		//play all controllers against each other in all mazes (resumes from tournament/games.csv): see Tournament.main()
+//		Tournament.main(new String[]{"10","tournament"});
 		 
 		
 		/*
@@ -136,6 +148,9 @@ public class Executor
 		//exec.replayGame(fileName,visual);
 		 */
 		
+		//measure the single-core throughput of the batched engine (game ticks per second)
+		//exec.runBatchThroughput(1024,10000);
+		
 		//run game for data collection
 		//exec.runGameTimed(new DataCollectorController(new KeyBoardInput()),new StarterGhosts(),visual);
 	}
@@ -157,14 +172,16 @@ public class Executor
     	Random rnd=new Random(0);
 		Game game;
 		
+		_resetTelemetry(pacManController,ghostController);
+		
 		for(int i=0;i<trials;i++)
 		{
 			game=new Game(rnd.nextLong());
 			
 			while(!game.gameOver())
 			{
-		        game.advanceGame(pacManController.getMove(game.copy(),System.currentTimeMillis()+DELAY),
-		        		ghostController.getMove(game.copy(),System.currentTimeMillis()+DELAY));
+		        game.advanceGame(pacManController.getMoveTimed(game.copy(),System.currentTimeMillis()+DELAY),
+		        		ghostController.getMoveTimed(game.copy(),System.currentTimeMillis()+DELAY));
 			}
 			
 			avgScore+=game.getScore();
@@ -172,8 +189,74 @@ public class Executor
 		}
 		
 		System.out.println(avgScore/trials);
+		_reportLatencies(pacManController,ghostController,false,0);
     }
 	
+	/**
+	 * Measures the throughput of the batched engine on a single core: numGames games are advanced in
+	 * lockstep with random moves for Ms Pac-Man and the ghosts (finished games are restarted) and the
+	 * number of game ticks simulated per second is printed and returned. The same is done using one
+	 * Game object per game for comparison.
+	 *
+	 * @param numGames The number of games advanced together
+	 * @param steps The number of times all games are advanced
+	 * @return the number of game ticks per second of the batched engine
+	 */
+	public double runBatchThroughput(int numGames,int steps)
+	{
+		Random rnd=new Random(0);
+		int[] pacManMoves=new int[numGames];
+		int[] ghostMoves=new int[numGames*NUM_GHOSTS];
+		MOVE[] moves=MOVE.values();
+		
+		BatchGame batch=new BatchGame(numGames,0,0);
+		long start=System.nanoTime();
+		
+		for(int s=0;s<steps;s++)
+		{
+			for(int i=0;i<numGames;i++)
+			{
+				if(batch.gameOver(i))
+					batch.reset(i,rnd.nextLong(),0);
+				
+				pacManMoves[i]=rnd.nextInt(4);
+			}
+			
+			for(int i=0;i<ghostMoves.length;i++)
+				ghostMoves[i]=rnd.nextInt(4);
+			
+			batch.step(pacManMoves,ghostMoves);
+		}
+		
+		double batchRate=numGames*(double)steps/((System.nanoTime()-start)/1e9);
+		
+		Game[] games=new Game[numGames];
+		EnumMap<GHOST,MOVE> ghostMoveMap=new EnumMap<GHOST,MOVE>(GHOST.class);
+		
+		for(int i=0;i<numGames;i++)
+			games[i]=new Game(i);
+		
+		start=System.nanoTime();
+		
+		for(int s=0;s<steps;s++)
+			for(int i=0;i<numGames;i++)
+			{
+				if(games[i].gameOver())
+					games[i]=new Game(rnd.nextLong());
+				
+				for(GHOST ghostType : GHOST.values())
+					ghostMoveMap.put(ghostType,moves[rnd.nextInt(4)]);
+				
+				games[i].advanceGame(moves[rnd.nextInt(4)],ghostMoveMap);
+			}
+		
+		double gameRate=numGames*(double)steps/((System.nanoTime()-start)/1e9);
+		
+		System.out.println("BatchGame: "+(long)batchRate+" ticks/s, Game: "+(long)gameRate+" ticks/s");
+		
+		return batchRate;
+	}
+	
 	/**
 	 * Run a game in asynchronous mode: the game waits until a move is returned. In order to slow thing down in case
 	 * the controllers return very quickly, a time limit can be used. If fasted gameplay is required, this delay
@@ -193,15 +276,19 @@ public class Executor
 		if(visual)
 			gv=new GameView(game).showGame();
 		
+		_resetTelemetry(pacManController,ghostController);
+		
 		while(!game.gameOver())
 		{
-	        game.advanceGame(pacManController.getMove(game.copy(),-1),ghostController.getMove(game.copy(),-1));
+	        game.advanceGame(pacManController.getMoveTimed(game.copy(),-1),ghostController.getMoveTimed(game.copy(),-1));
 	        
 	        try{Thread.sleep(delay);}catch(Exception e){}
 	        
 	        if(visual)
 	        	gv.repaint();
 		}
+		
+		_reportLatencies(pacManController,ghostController,false,game.getTotalTime());
 	}
 	
 	/**
@@ -223,10 +310,9 @@ public class Executor
 		
 		if(pacManController instanceof HumanController)
 			gv.getFrame().addKeyListener(((HumanController)pacManController).getKeyboardInput());
-				
-		new Thread(pacManController).start();
-		new Thread(ghostController).start();
 		
+		_resetTelemetry(pacManController,ghostController);
+				
 		while(!game.gameOver())
 		{
 			pacManController.update(game.copy(),System.currentTimeMillis()+DELAY);
@@ -249,12 +335,14 @@ public class Executor
 		
 		pacManController.terminate();
 		ghostController.terminate();
+		_reportLatencies(pacManController,ghostController,true,game.getTotalTime());
 		return game.getScore();
 	}
 	
     /**
      * Run the game in asynchronous mode but proceed as soon as both controllers replied. The time limit still applies so 
-     * so the game will proceed after 40ms regardless of whether the controllers managed to calculate a turn.
+     * so the game will proceed after 40ms regardless of whether the controllers managed to calculate a turn. The game
+     * does not poll the controllers: it sleeps until they signal that they have replied or the time is up.
      *     
      * @param pacManController The Pac-Man controller
      * @param ghostController The Ghosts controller
@@ -272,39 +360,28 @@ public class Executor
  		
  		if(pacManController instanceof HumanController)
  			gv.getFrame().addKeyListener(((HumanController)pacManController).getKeyboardInput());
- 				
- 		new Thread(pacManController).start();
- 		new Thread(ghostController).start();
  		
+ 		_resetTelemetry(pacManController,ghostController);
+ 				
  		while(!game.gameOver())
  		{
+ 			long deadline=System.nanoTime()+DELAY*1000000L;
+ 			
  			pacManController.update(game.copy(),System.currentTimeMillis()+DELAY);
  			ghostController.update(game.copy(),System.currentTimeMillis()+DELAY);
 
- 			try
+			//the controllers unpark this thread once they have computed their moves (see Controller.update())
+			while(fixedTime || !(pacManController.hasComputed() && ghostController.hasComputed()))
 			{
-				int waited=DELAY/INTERVAL_WAIT;
-				
-				for(int j=0;j<DELAY/INTERVAL_WAIT;j++)
-				{
-					Thread.sleep(INTERVAL_WAIT);
-					
-					if(pacManController.hasComputed() && ghostController.hasComputed())
-					{
-						waited=j;
-						break;
-					}
-				}
+				long remaining=deadline-System.nanoTime();
 				
-				if(fixedTime)
-					Thread.sleep(((DELAY/INTERVAL_WAIT)-waited)*INTERVAL_WAIT);
+				if(remaining<=0 || Thread.interrupted())
+					break;
 				
-				game.advanceGame(pacManController.getMove(),ghostController.getMove());	
-			}
-			catch(InterruptedException e)
-			{
-				e.printStackTrace();
+				LockSupport.parkNanos(remaining);
 			}
+			
+			game.advanceGame(pacManController.getMove(),ghostController.getMove());
  	        
  	        if(visual)
  	        	gv.repaint();
@@ -312,6 +389,7 @@ public class Executor
  		
  		pacManController.terminate();
  		ghostController.terminate();
+ 		_reportLatencies(pacManController,ghostController,true,game.getTotalTime());
  	}
     
 	/**
@@ -338,8 +416,7 @@ public class Executor
 				gv.getFrame().addKeyListener(((HumanController)pacManController).getKeyboardInput());
 		}		
 		
-		new Thread(pacManController).start();
-		new Thread(ghostController).start();
+		_resetTelemetry(pacManController,ghostController);
 		
 		while(!game.gameOver())
 		{
@@ -365,6 +442,7 @@ public class Executor
 		
 		pacManController.terminate();
 		ghostController.terminate();
+		_reportLatencies(pacManController,ghostController,true,game.getTotalTime());
 		
 		saveToFile(replay.toString(),fileName,false);
 	}
@@ -403,6 +481,62 @@ public class Executor
 		}
 	}
 	
+	/**
+	 * Appends the latencies of the controllers to the file given at the end of each game (and experiment)
+	 * instead of printing them.
+	 *
+	 * @param fileName The name of the file, or null to print the latencies
+	 */
+	public void setTelemetryFile(String fileName)
+	{
+		telemetryFileName=fileName;
+	}
+	
+	private static void _resetTelemetry(Controller<?> pacManController,Controller<?> ghostController)
+	{
+		synchronized(pacManController)
+		{
+			pacManController.getLatencies().reset();
+			pacManController.resetMissedTicks();
+		}
+		
+		synchronized(ghostController)
+		{
+			ghostController.getLatencies().reset();
+			ghostController.resetMissedTicks();
+		}
+	}
+	
+	/**
+	 * Prints (or saves, see setTelemetryFile()) the latencies of the controllers' moves, how many of them took longer
+	 * than DELAY and, in the timed modes, in how many of the ticks the game advanced before the controller's move was
+	 * ready (see Controller.getMissedTicks()).
+	 */
+	private void _reportLatencies(Controller<?> pacManController,Controller<?> ghostController,boolean timed,int ticks)
+	{
+		String report=_latencyReport("Ms Pac-Man",pacManController,timed,ticks)+"\n"+_latencyReport("Ghosts",ghostController,timed,ticks);
+		
+		if(telemetryFileName==null)
+			System.out.println(report);
+		else
+			saveToFile(report,telemetryFileName,true);
+	}
+	
+	private static String _latencyReport(String role,Controller<?> controller,boolean timed,int ticks)
+	{
+		synchronized(controller)
+		{
+			LatencyHistogram latencies=controller.getLatencies();
+			String report=role+" ("+controller.getClass().getSimpleName()+"): "+latencies
+					+" over "+DELAY+"ms="+latencies.getCountAbove(DELAY*1000000L);
+			
+			if(timed)
+				report+=" late="+controller.getMissedTicks()+"/"+ticks;
+			
+			return report;
+		}
+	}
+	
 	//save file for replays
     public static void saveToFile(String data,String name,boolean append)
     {
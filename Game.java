@@ -1,16 +1,19 @@
 package pacman.game;
 
-import java.util.BitSet;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.Random;
 import java.util.Map.Entry;
+import java.util.function.IntConsumer;
+import pacman.controllers.Controller;
 import pacman.game.Constants.DM;
 import pacman.game.Constants.MOVE;
-import pacman.game.internal.Ghost;
+import pacman.game.internal.DistanceFields;
+import pacman.game.internal.IntPath;
 import pacman.game.internal.Maze;
 import pacman.game.internal.Node;
-import pacman.game.internal.PacMan;
 import pacman.game.internal.PathsCache;
+import pacman.game.internal.PillDistanceField;
 
 import static pacman.game.Constants.*;
 
@@ -20,7 +23,8 @@ import static pacman.game.Constants.*;
  * then proceeds to initialise all variables using default values. The game class also provides numerous
  * methods to extract the game state as a string (used for replays and for communication via pipes during
  * the competition) and to create copies. Care has been taken to implement the game efficiently to ensure
- * that copies can be created quickly.
+ * that copies can be created quickly: all mutable state is held in primitive fields and flat arrays (one
+ * entry per ghost, indexed by GHOST.ordinal()) so a copy amounts to a handful of array copies.
  * 
  * The game has a central update method called advanceGame which takes a move for Ms Pac-Man and up to
  * 4 moves for the ghosts. It then updates the positions of all characters, check whether pills or power
@@ -36,39 +40,61 @@ import static pacman.game.Constants.*;
  */
 public final class Game
 {
-	//pills stored as bitsets for efficient copying
-	private BitSet pills, powerPills;
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final GHOST[] GHOSTS=GHOST.values();
+	
+	//pills stored as words of bits (bit i of the array is pill i) for efficient copying
+	private long[] pills, powerPills;
+	//the pills still available as a dense array of pill indices (in no particular order) and the position of each pill in it
+	private int[] activePills, activePillPositions;
+	private int numActivePills;
+	//the distances to the nearest pill/power pill; brought up to date lazily when queried and shared with copies
+	private PillDistanceField pillField, powerPillField;
 	//all the game's variables
 	private int mazeIndex, levelCount, currentLevelTime, totalTime, score, ghostEatMultiplier, timeOfLastGlobalReversal;	
 	private boolean gameOver, pacmanWasEaten, pillWasEaten, powerPillWasEaten;
-	private EnumMap<GHOST,Boolean> ghostsEaten;
-	//the data relating to pacman and the ghosts are stored in respective data structures for clarity
-	private PacMan pacman;
-	private EnumMap<GHOST, Ghost> ghosts;
+	//the data relating to Ms Pac-Man
+	private int pacmanNodeIndex, pacmanNumberOfLivesRemaining;
+	private MOVE pacmanLastMoveMade;
+	private boolean pacmanHasReceivedExtraLife;
+	//the data relating to the ghosts: one entry per ghost, indexed by GHOST.ordinal(); moves are stored as MOVE.ordinal()
+	private int[] ghostNodeIndices, ghostEdibleTimes, ghostLairTimes, ghostLastMoves;
+	private boolean[] ghostsEaten;
+	//Zobrist hash of the state, updated incrementally (see getStateHash())
+	private long stateHash;
 
-	//mazes are only loaded once since they don't change over time
-	private static Maze[] mazes=new Maze[NUM_MAZES];;
+	//mazes are only loaded once since they don't change over time, and only when they are first used (see getMaze()).
+	//A maze is published by replacing the whole (volatile) array, so reading it needs no lock.
+	private static volatile Maze[] mazes=new Maze[NUM_MAZES];
 	
 	private Maze currentMaze;
 	
-	static 
-	{
-		for(int i=0;i<mazes.length;i++)
-			mazes[i]=new Maze(i);
-	}
+	//the distance fields of each maze with all pills present, from which the fields of all games are derived (created with the maze)
+	private static PillDistanceField[] initialPillFields=new PillDistanceField[NUM_MAZES];
+	private static PillDistanceField[] initialPowerPillFields=new PillDistanceField[NUM_MAZES];
 	
-	public static PathsCache[] caches=new PathsCache[NUM_MAZES];
+	//the paths caches of the mazes, created when a path of the maze is first requested (see _getPathsCache())
+	public static volatile PathsCache[] caches=new PathsCache[NUM_MAZES];
 	
-	static 
+	private static final ThreadLocal<IntPath> pathCursors=new ThreadLocal<IntPath>()
 	{
-		for(int i=0;i<mazes.length;i++)
+		protected IntPath initialValue()
 		{
-			caches[i]=new PathsCache(i);
+			return new IntPath();
 		}
-	}
+	};
+	
+	//all NEUTRAL: the last moves of sources that may start in any direction (see computeDistanceField())
+	private static volatile MOVE[] neutralMoves=new MOVE[0];
+
+	//the state of the game's pseudo-random number generator (SplitMix64): copied along with the game
+	private long rngState;
 	
-	private Random rnd;
-	private long seed;	
+	//the undo log (only kept if enabled): a fixed-size frame of ints per tick plus the pill words of that tick
+	private static final int UNDO_FRAME=30;
+	private int[] undoFrames;
+	private long[] undoPills;
+	private int undoDepth,undoPillsSize;
 	
 	/////////////////////////////////////////////////////////////////////////////
 	///////////////////  Constructors and initialisers  /////////////////////////
@@ -77,15 +103,16 @@ public final class Game
 	/**
 	 * Instantiates a new game. The seed is used to initialise the pseudo-random
 	 * number generator. This way, a game may be replicated exactly by using identical
-	 * seeds. Note: in the competition, the games received from the game server are
+	 * seeds (and moves). Each game has its own generator which is used for global
+	 * reversals and for the moves of ghosts that cannot follow the move requested.
+	 * Note: in the competition, the games received from the game server are
 	 * using different seeds. Otherwise global reversal events would be predictable.
 	 *
 	 * @param seed The seed for the pseudo-random number generator
 	 */
 	public Game(long seed)
 	{		
-		this.seed=seed;
-		rnd=new Random(seed);
+		rngState=seed;
 		
 		_init(0);
 	}
@@ -98,8 +125,7 @@ public final class Game
 	 */
 	public Game(long seed,int initialMaze)
 	{						
-		this.seed=seed;
-		rnd=new Random(seed);
+		rngState=seed;
 		
 		_init(initialMaze);		
 	}
@@ -125,15 +151,21 @@ public final class Game
 		pillWasEaten=false;
 		powerPillWasEaten=false;
 		
-		ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
+		ghostNodeIndices=new int[NUM_GHOSTS];
+		ghostEdibleTimes=new int[NUM_GHOSTS];
+		ghostLairTimes=new int[NUM_GHOSTS];
+		ghostLastMoves=new int[NUM_GHOSTS];
+		ghostsEaten=new boolean[NUM_GHOSTS];
 		
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,false);
-		
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=getMaze(mazeIndex));
 		_initGhosts();
 		
-		pacman=new PacMan(currentMaze.initialPacManNodeIndex,MOVE.LEFT,NUM_LIVES,false);		
+		pacmanNodeIndex=currentMaze.initialPacManNodeIndex;
+		pacmanLastMoveMade=MOVE.LEFT;
+		pacmanNumberOfLivesRemaining=NUM_LIVES;
+		pacmanHasReceivedExtraLife=false;
+		
+		stateHash=_computeHash();
 	}
 	
 	/**
@@ -143,7 +175,7 @@ public final class Game
 	{
 		mazeIndex=++mazeIndex%NUM_MAZES;
 		levelCount++;
-		currentMaze=mazes[mazeIndex];
+		currentMaze=getMaze(mazeIndex);
 		
 		currentLevelTime=0;
 		ghostEatMultiplier=1;
@@ -161,8 +193,10 @@ public final class Game
 		
 		_initGhosts();
 		
-		pacman.currentNodeIndex=currentMaze.initialPacManNodeIndex;
-		pacman.lastMoveMade=MOVE.LEFT;
+		pacmanNodeIndex=currentMaze.initialPacManNodeIndex;
+		pacmanLastMoveMade=MOVE.LEFT;
+		
+		stateHash=_computeHash();
 	}
 	
 	/**
@@ -172,10 +206,81 @@ public final class Game
 	 */
 	private void _setPills(Maze maze)
 	{
-		pills=new BitSet(currentMaze.pillIndices.length);
-		pills.set(0,currentMaze.pillIndices.length);
-		powerPills=new BitSet(currentMaze.powerPillIndices.length);
-		powerPills.set(0,currentMaze.powerPillIndices.length);
+		pills=_setAll(pills,maze.pillIndices.length);
+		powerPills=_setAll(powerPills,maze.powerPillIndices.length);
+		
+		_rebuildActivePills();
+	}
+	
+	/**
+	 * Rebuilds the dense array of active pills from the pill bits.
+	 */
+	private void _rebuildActivePills()
+	{
+		int numPills=currentMaze.pillIndices.length;
+		
+		if(activePills==null || activePills.length!=numPills)
+		{
+			activePills=new int[numPills];
+			activePillPositions=new int[numPills];
+		}
+		
+		numActivePills=0;
+		
+		for(int i=0;i<numPills;i++)
+			if(_get(pills,i))
+			{
+				activePillPositions[i]=numActivePills;
+				activePills[numActivePills++]=i;
+			}
+			else
+				activePillPositions[i]=-1;
+	}
+	
+	/**
+	 * Removes the pill from the active pills in constant time: the last active pill takes its place.
+	 */
+	private void _removeActivePill(int pillIndex)
+	{
+		int position=activePillPositions[pillIndex];
+		int last=activePills[--numActivePills];
+		
+		activePills[position]=last;
+		activePillPositions[last]=position;
+		activePillPositions[pillIndex]=-1;
+	}
+	
+	/**
+	 * Adds the pill to the active pills in constant time.
+	 */
+	private void _addActivePill(int pillIndex)
+	{
+		activePillPositions[pillIndex]=numActivePills;
+		activePills[numActivePills++]=pillIndex;
+	}
+	
+	/**
+	 * Sets the first numBits bits of the given words (re-allocating them if they are too short)
+	 * and clears all others.
+	 *
+	 * @param words the words to reuse, may be null
+	 * @param numBits the number of bits to set
+	 * @return the words
+	 */
+	private static long[] _setAll(long[] words,int numBits)
+	{
+		int numWords=(numBits+63)>>>6;
+		
+		if(words==null || words.length<numWords)
+			words=new long[numWords];
+		
+		for(int i=0;i<words.length;i++)
+		{
+			int remaining=numBits-(i<<6);
+			words[i]=remaining>=64 ? -1L : (remaining<=0 ? 0L : (1L<<remaining)-1);
+		}
+		
+		return words;
 	}
 	
 	/**
@@ -183,11 +288,15 @@ public final class Game
 	 */
 	private void _initGhosts()
 	{
-		ghosts=new EnumMap<GHOST, Ghost>(GHOST.class);
-					
-		for(GHOST ghostType : GHOST.values())
-			ghosts.put(ghostType,new Ghost(ghostType,currentMaze.lairNodeIndex,0,
-					(int)(ghostType.initialLairTime*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION))),MOVE.NEUTRAL));
+		for(GHOST ghostType : GHOSTS)
+		{
+			int g=ghostType.ordinal();
+			
+			ghostNodeIndices[g]=currentMaze.lairNodeIndex;
+			ghostEdibleTimes[g]=0;
+			ghostLairTimes[g]=(int)(ghostType.initialLairTime*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
+			ghostLastMoves[g]=MOVE.NEUTRAL.ordinal();
+		}
 	}
 
 	/**
@@ -203,13 +312,13 @@ public final class Game
 		StringBuilder sb=new StringBuilder();
 
 		sb.append(mazeIndex+","+totalTime+","+score+","+currentLevelTime+","+levelCount+","
-				+pacman.currentNodeIndex+","+pacman.lastMoveMade+","+pacman.numberOfLivesRemaining+","+pacman.hasReceivedExtraLife+",");
+				+pacmanNodeIndex+","+pacmanLastMoveMade+","+pacmanNumberOfLivesRemaining+","+pacmanHasReceivedExtraLife+",");
 
-		for(Ghost ghost : ghosts.values())
-			sb.append(ghost.currentNodeIndex+","+ghost.edibleTime+","+ghost.lairTime+","+ghost.lastMoveMade+",");
+		for(int g=0;g<NUM_GHOSTS;g++)
+			sb.append(ghostNodeIndices[g]+","+ghostEdibleTimes[g]+","+ghostLairTimes[g]+","+MOVES[ghostLastMoves[g]]+",");
 
 		for(int i=0;i<currentMaze.pillIndices.length;i++)
-			if(pills.get(i))
+			if(_get(pills,i))
 				sb.append("1");
 			else
 				sb.append("0");
@@ -217,7 +326,7 @@ public final class Game
 		sb.append(",");
 		
 		for(int i=0;i<currentMaze.powerPillIndices.length;i++)
-			if(powerPills.get(i))
+			if(_get(powerPills,i))
 				sb.append("1");
 			else
 				sb.append("0");
@@ -228,9 +337,9 @@ public final class Game
 		sb.append(pacmanWasEaten);
 		sb.append(",");	
 		
-		for(GHOST ghost : GHOST.values())
+		for(int g=0;g<NUM_GHOSTS;g++)
 		{
-			sb.append(ghostsEaten.get(ghost));
+			sb.append(ghostsEaten[g]);
 			sb.append(",");
 		}
 		
@@ -259,81 +368,539 @@ public final class Game
 		currentLevelTime=Integer.parseInt(values[index++]);
 		levelCount=Integer.parseInt(values[index++]);
 		
-		pacman=new PacMan(Integer.parseInt(values[index++]),MOVE.valueOf(values[index++]),
-				Integer.parseInt(values[index++]),Boolean.parseBoolean(values[index++]));
+		pacmanNodeIndex=Integer.parseInt(values[index++]);
+		pacmanLastMoveMade=MOVE.valueOf(values[index++]);
+		pacmanNumberOfLivesRemaining=Integer.parseInt(values[index++]);
+		pacmanHasReceivedExtraLife=Boolean.parseBoolean(values[index++]);
 		
-		ghosts=new EnumMap<GHOST, Ghost>(GHOST.class);
-		
-		for(GHOST ghostType : GHOST.values())
-			ghosts.put(ghostType,new Ghost(ghostType,Integer.parseInt(values[index++]),Integer.parseInt(values[index++]),
-					Integer.parseInt(values[index++]),MOVE.valueOf(values[index++])));
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			ghostNodeIndices[g]=Integer.parseInt(values[index++]);
+			ghostEdibleTimes[g]=Integer.parseInt(values[index++]);
+			ghostLairTimes[g]=Integer.parseInt(values[index++]);
+			ghostLastMoves[g]=MOVE.valueOf(values[index++]).ordinal();
+		}
 			
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=getMaze(mazeIndex));
 		
 		for(int i=0;i<values[index].length();i++)
 			if(values[index].charAt(i)=='1')
-				pills.set(i);
+				_set(pills,i);
 			else
-				pills.clear(i);
+				_clear(pills,i);
 		
+		_rebuildActivePills();
 		index++;
 		
 		for(int i=0;i<values[index].length();i++)
 			if(values[index].charAt(i)=='1')
-				powerPills.set(i);		
+				_set(powerPills,i);		
 			else
-				powerPills.clear(i);
+				_clear(powerPills,i);
 		
 		timeOfLastGlobalReversal=Integer.parseInt(values[++index]);			
 		pacmanWasEaten=Boolean.parseBoolean(values[++index]);
 		
-		ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
-		
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,Boolean.parseBoolean(values[++index]));
+		for(int g=0;g<NUM_GHOSTS;g++)
+			ghostsEaten[g]=Boolean.parseBoolean(values[++index]);
 		
 		pillWasEaten=Boolean.parseBoolean(values[++index]);
 		powerPillWasEaten=Boolean.parseBoolean(values[++index]);
+		
+		stateHash=_computeHash();
+		clearUndo();
+	}
+	
+	/**
+	 * An upper bound on the number of bytes written by encodeState().
+	 */
+	public static final int MAX_ENCODED_STATE_SIZE=256;
+	
+	//the flags of the binary state; ghost g being eaten is ENC_GHOST_EATEN<<g
+	private static final int ENC_EXTRA_LIFE=1,ENC_GAME_OVER=2,ENC_PACMAN_EATEN=4,ENC_PILL_EATEN=8,ENC_POWER_PILL_EATEN=16,ENC_GHOST_EATEN=32;
+	
+	/**
+	 * Writes the state of the game to the buffer supplied in a compact binary form: the binary
+	 * counterpart of getGameState(). Counters and node indices are written as variable-length
+	 * integers, the moves of all characters share two bytes, all boolean flags share a single
+	 * varint and the pills are written as a bit set of one bit per pill. A state takes around
+	 * 70 bytes (at most MAX_ENCODED_STATE_SIZE) and no objects are created. Unlike the string,
+	 * the binary state also includes whether the game is over, the ghost eat multiplier and the
+	 * state of the random number generator.
+	 * The buffer's position is advanced past the state.
+	 *
+	 * @param buffer The buffer to write the state to
+	 * @return the number of bytes written
+	 */
+	public int encodeState(ByteBuffer buffer)
+	{
+		int start=buffer.position();
+		
+		_putVarint(buffer,mazeIndex);
+		_putVarint(buffer,totalTime);
+		_putVarint(buffer,score);
+		_putVarint(buffer,currentLevelTime);
+		_putVarint(buffer,levelCount);
+		_putVarint(buffer,ghostEatMultiplier);
+		_putVarint(buffer,timeOfLastGlobalReversal+1);	//-1 if there has not been a reversal yet
+		_putVarint(buffer,pacmanNodeIndex);
+		_putVarint(buffer,pacmanNumberOfLivesRemaining);
+		
+		int moves=pacmanLastMoveMade.ordinal();
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			_putVarint(buffer,ghostNodeIndices[g]);
+			_putVarint(buffer,ghostEdibleTimes[g]);
+			_putVarint(buffer,ghostLairTimes[g]);
+			moves|=ghostLastMoves[g]<<(3*(g+1));
+		}
+		
+		buffer.putShort((short)moves);
+		
+		int flags=0;
+		
+		if(pacmanHasReceivedExtraLife)	flags|=ENC_EXTRA_LIFE;
+		if(gameOver)					flags|=ENC_GAME_OVER;
+		if(pacmanWasEaten)				flags|=ENC_PACMAN_EATEN;
+		if(pillWasEaten)				flags|=ENC_PILL_EATEN;
+		if(powerPillWasEaten)			flags|=ENC_POWER_PILL_EATEN;
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+			if(ghostsEaten[g])
+				flags|=ENC_GHOST_EATEN<<g;
+		
+		_putVarint(buffer,flags);
+		buffer.putLong(rngState);
+		_putBits(buffer,pills,currentMaze.pillIndices.length);
+		_putBits(buffer,powerPills,currentMaze.powerPillIndices.length);
+		
+		return buffer.position()-start;
+	}
+	
+	/**
+	 * Sets the game state from its binary form: the inverse of encodeState(). The state is read
+	 * from the buffer's position, which is advanced past the state. Apart from the pill words
+	 * (which are only re-allocated if the game switches to a maze with more pills than it has
+	 * seen before), no objects are created.
+	 *
+	 * @param buffer The buffer to read the state from
+	 */
+	public void decodeState(ByteBuffer buffer)
+	{
+		mazeIndex=_getVarint(buffer);
+		totalTime=_getVarint(buffer);
+		score=_getVarint(buffer);
+		currentLevelTime=_getVarint(buffer);
+		levelCount=_getVarint(buffer);
+		ghostEatMultiplier=_getVarint(buffer);
+		timeOfLastGlobalReversal=_getVarint(buffer)-1;
+		pacmanNodeIndex=_getVarint(buffer);
+		pacmanNumberOfLivesRemaining=_getVarint(buffer);
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			ghostNodeIndices[g]=_getVarint(buffer);
+			ghostEdibleTimes[g]=_getVarint(buffer);
+			ghostLairTimes[g]=_getVarint(buffer);
+		}
+		
+		int moves=buffer.getShort();
+		
+		pacmanLastMoveMade=MOVES[moves&7];
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+			ghostLastMoves[g]=(moves>>>(3*(g+1)))&7;
+		
+		int flags=_getVarint(buffer);
+		
+		pacmanHasReceivedExtraLife=(flags&ENC_EXTRA_LIFE)!=0;
+		gameOver=(flags&ENC_GAME_OVER)!=0;
+		pacmanWasEaten=(flags&ENC_PACMAN_EATEN)!=0;
+		pillWasEaten=(flags&ENC_PILL_EATEN)!=0;
+		powerPillWasEaten=(flags&ENC_POWER_PILL_EATEN)!=0;
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+			ghostsEaten[g]=(flags&(ENC_GHOST_EATEN<<g))!=0;
+		
+		rngState=buffer.getLong();
+		_setPills(currentMaze=getMaze(mazeIndex));
+		_getBits(buffer,pills,currentMaze.pillIndices.length);
+		_getBits(buffer,powerPills,currentMaze.powerPillIndices.length);
+		_rebuildActivePills();
+		
+		stateHash=_computeHash();
+		clearUndo();
+	}
+	
+	/**
+	 * Writes a non-negative int using 7 bits per byte, the high bit marking that more bytes follow.
+	 */
+	private static void _putVarint(ByteBuffer buffer,int value)
+	{
+		while((value&~0x7f)!=0)
+		{
+			buffer.put((byte)((value&0x7f)|0x80));
+			value>>>=7;
+		}
+		
+		buffer.put((byte)value);
+	}
+	
+	/**
+	 * Reads an int written by _putVarint().
+	 */
+	private static int _getVarint(ByteBuffer buffer)
+	{
+		int value=0;
+		
+		for(int shift=0;;shift+=7)
+		{
+			int b=buffer.get();
+			value|=(b&0x7f)<<shift;
+			
+			if(b>=0)
+				return value;
+		}
+	}
+	
+	/**
+	 * Writes the first numBits bits of the words as ceil(numBits/8) bytes, lowest bits first.
+	 */
+	private static void _putBits(ByteBuffer buffer,long[] words,int numBits)
+	{
+		for(int i=0;i<numBits;i+=8)
+			buffer.put((byte)(words[i>>>6]>>>(i&63)));
+	}
+	
+	/**
+	 * Reads bits written by _putBits() into words whose first numBits bits are set and whose
+	 * remaining bits are clear (as left by _setAll()).
+	 */
+	private static void _getBits(ByteBuffer buffer,long[] words,int numBits)
+	{
+		for(int i=0;i<numBits;i+=8)
+		{
+			long b=buffer.get()&0xffL;
+			int remaining=numBits-i;
+			
+			if(remaining<8)
+				b&=(1L<<remaining)-1;
+			
+			words[i>>>6]&=~(0xffL<<(i&63))|(b<<(i&63));
+		}
 	}
 	
 	/**
 	 * Returns an exact copy of the game. This may be used for forward searches
-	 * such as minimax. The copying is relatively efficient.
+	 * such as minimax. The copying is relatively efficient: apart from the game
+	 * itself, only the flat arrays holding the pills and the ghosts are created.
+	 * The copy continues the random number stream of the game: advanced with the
+	 * same moves, the copy and the original remain identical.
 	 *
 	 * @return the game
 	 */
 	public Game copy()
 	{
 		Game copy=new Game();
+		copyInto(copy);
 			
-		copy.seed=seed;
-		copy.rnd=new Random(seed);
-		copy.currentMaze=currentMaze;		
-		copy.pills=(BitSet)pills.clone();
-		copy.powerPills=(BitSet)powerPills.clone();		
-		copy.mazeIndex=mazeIndex;
-		copy.levelCount=levelCount;
-		copy.currentLevelTime=currentLevelTime;		
-		copy.totalTime=totalTime;
-		copy.score=score;
-		copy.ghostEatMultiplier=ghostEatMultiplier;
-		copy.gameOver=gameOver;
-		copy.timeOfLastGlobalReversal=timeOfLastGlobalReversal;		
-		copy.pacmanWasEaten=pacmanWasEaten;
-		copy.pillWasEaten=pillWasEaten;
-		copy.powerPillWasEaten=powerPillWasEaten;		
-		copy.pacman=pacman.copy();
-		
-		copy.ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
-		copy.ghosts=new EnumMap<GHOST,Ghost>(GHOST.class);
-		
-		for(GHOST ghostType : GHOST.values())
+		return copy;	
+	}
+	
+	/**
+	 * Restarts the game's pseudo-random number generator with the given seed. This may be used
+	 * to give copies of a game independent random futures, e.g., for Monte Carlo rollouts.
+	 *
+	 * @param seed The new seed
+	 */
+	public void reseed(long seed)
+	{
+		rngState=seed;
+	}
+	
+	/**
+	 * Copies the state of this game into the game supplied, overwriting whatever state it held
+	 * before. The arrays of the target are reused whenever possible so that no new objects are
+	 * created; this allows forward searches to recycle a fixed set of games (see GamePool)
+	 * instead of calling copy() for every node. Afterwards, dst behaves exactly like copy() would;
+	 * any ticks recorded in the undo log of dst are discarded.
+	 *
+	 * @param dst The game to copy this game into
+	 */
+	public void copyInto(Game dst)
+	{
+		dst.rngState=rngState;
+		dst.currentMaze=currentMaze;		
+		dst.pills=_copy(pills,dst.pills);
+		dst.powerPills=_copy(powerPills,dst.powerPills);
+		dst.activePills=_copy(activePills,dst.activePills);
+		dst.activePillPositions=_copy(activePillPositions,dst.activePillPositions);
+		dst.numActivePills=numActivePills;
+		
+		if(pillField!=null)
+			pillField.share();
+		
+		if(powerPillField!=null)
+			powerPillField.share();
+		
+		dst.pillField=pillField;
+		dst.powerPillField=powerPillField;
+		dst.mazeIndex=mazeIndex;
+		dst.levelCount=levelCount;
+		dst.currentLevelTime=currentLevelTime;		
+		dst.totalTime=totalTime;
+		dst.score=score;
+		dst.ghostEatMultiplier=ghostEatMultiplier;
+		dst.gameOver=gameOver;
+		dst.timeOfLastGlobalReversal=timeOfLastGlobalReversal;		
+		dst.pacmanWasEaten=pacmanWasEaten;
+		dst.pillWasEaten=pillWasEaten;
+		dst.powerPillWasEaten=powerPillWasEaten;		
+		dst.pacmanNodeIndex=pacmanNodeIndex;
+		dst.pacmanLastMoveMade=pacmanLastMoveMade;
+		dst.pacmanNumberOfLivesRemaining=pacmanNumberOfLivesRemaining;
+		dst.pacmanHasReceivedExtraLife=pacmanHasReceivedExtraLife;
+		dst.ghostNodeIndices=_copy(ghostNodeIndices,dst.ghostNodeIndices);
+		dst.ghostEdibleTimes=_copy(ghostEdibleTimes,dst.ghostEdibleTimes);
+		dst.ghostLairTimes=_copy(ghostLairTimes,dst.ghostLairTimes);
+		dst.ghostLastMoves=_copy(ghostLastMoves,dst.ghostLastMoves);
+		
+		if(dst.ghostsEaten==null)
+			dst.ghostsEaten=new boolean[NUM_GHOSTS];
+		
+		System.arraycopy(ghostsEaten,0,dst.ghostsEaten,0,NUM_GHOSTS);
+		
+		dst.stateHash=stateHash;
+		dst.clearUndo();
+	}
+	
+	/**
+	 * Copies src into dst, creating a new array only if dst does not have the same length.
+	 */
+	private static long[] _copy(long[] src,long[] dst)
+	{
+		if(dst==null || dst.length!=src.length)
+			return src.clone();
+		
+		System.arraycopy(src,0,dst,0,src.length);
+		return dst;
+	}
+	
+	/**
+	 * Copies src into dst, creating a new array only if dst does not have the same length.
+	 */
+	private static int[] _copy(int[] src,int[] dst)
+	{
+		if(dst==null || dst.length!=src.length)
+			return src.clone();
+		
+		System.arraycopy(src,0,dst,0,src.length);
+		return dst;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////  Undo log   //////////////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Enables the undo log: from now on, every call to one of the advanceGame methods records the
+	 * state prior to the update so that it can be restored exactly using undo(). This allows
+	 * depth-first searches to walk a tree on a single game instead of copying the game at every
+	 * node. Each tick takes up a small, fixed number of ints plus the words of the pill bitsets.
+	 * Note that calling updatePacMan(), updateGhosts() or updateGame() directly is not recorded.
+	 * The log is not carried over by copy() or copyInto().
+	 */
+	public void enableUndo()
+	{
+		if(undoFrames==null)
+		{
+			undoFrames=new int[UNDO_FRAME*64];
+			undoPills=new long[8*64];
+		}
+	}
+	
+	/**
+	 * Disables the undo log and discards all recorded ticks.
+	 */
+	public void disableUndo()
+	{
+		undoFrames=null;
+		undoPills=null;
+		undoDepth=undoPillsSize=0;
+	}
+	
+	/**
+	 * Discards all recorded ticks (the log remains enabled if it was).
+	 */
+	public void clearUndo()
+	{
+		undoDepth=undoPillsSize=0;
+	}
+	
+	/**
+	 * Returns the number of ticks that can currently be undone.
+	 *
+	 * @return the number of recorded ticks
+	 */
+	public int getUndoDepth()
+	{
+		return undoDepth;
+	}
+	
+	/**
+	 * Restores the state of the game prior to the last call to one of the advanceGame methods.
+	 * This includes resets of the level or maze and the eating of pills and characters.
+	 *
+	 * @return whether a tick was undone (false if the log is empty or disabled)
+	 */
+	public boolean undo()
+	{
+		if(undoDepth==0)
+			return false;
+		
+		int i=--undoDepth*UNDO_FRAME;
+		int[] frame=undoFrames;
+		int previousMazeIndex=mazeIndex;
+		
+		mazeIndex=frame[i++];
+		levelCount=frame[i++];
+		currentLevelTime=frame[i++];
+		totalTime=frame[i++];
+		score=frame[i++];
+		ghostEatMultiplier=frame[i++];
+		timeOfLastGlobalReversal=frame[i++];
+		pacmanNodeIndex=frame[i++];
+		pacmanNumberOfLivesRemaining=frame[i++];
+		pacmanLastMoveMade=MOVES[frame[i++]];
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+		{
+			ghostNodeIndices[g]=frame[i++];
+			ghostEdibleTimes[g]=frame[i++];
+			ghostLairTimes[g]=frame[i++];
+			ghostLastMoves[g]=frame[i++];
+		}
+		
+		int flags=frame[i++];
+		
+		gameOver=(flags&1)!=0;
+		pacmanWasEaten=(flags&2)!=0;
+		pillWasEaten=(flags&4)!=0;
+		powerPillWasEaten=(flags&8)!=0;
+		pacmanHasReceivedExtraLife=(flags&16)!=0;
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+			ghostsEaten[g]=(flags&(32<<g))!=0;
+		
+		rngState=(frame[i++]&0xffffffffL)|((long)frame[i++]<<32);
+		undoPillsSize=frame[i++];
+		currentMaze=getMaze(mazeIndex);
+		
+		//within the same maze, only the few pills that differ are added to/removed from the active pills
+		if(mazeIndex==previousMazeIndex)
+			_restoreActivePills(currentMaze.pillIndices.length,undoPillsSize);
+		
+		int offset=_restoreWords(pills=_setAll(pills,currentMaze.pillIndices.length),currentMaze.pillIndices.length,undoPillsSize);
+		_restoreWords(powerPills=_setAll(powerPills,currentMaze.powerPillIndices.length),currentMaze.powerPillIndices.length,offset);
+		
+		if(mazeIndex!=previousMazeIndex)
+			_rebuildActivePills();
+		
+		stateHash=_computeHash();
+		
+		return true;
+	}
+	
+	/**
+	 * Records the current state in the undo log (if enabled).
+	 */
+	private void _pushUndo()
+	{
+		if(undoFrames==null)
+			return;
+		
+		if((undoDepth+1)*UNDO_FRAME>undoFrames.length)
+			undoFrames=Arrays.copyOf(undoFrames,undoFrames.length*2);
+		
+		int numPillWords=(currentMaze.pillIndices.length+63)>>>6;
+		int numPowerPillWords=(currentMaze.powerPillIndices.length+63)>>>6;
+		
+		if(undoPillsSize+numPillWords+numPowerPillWords>undoPills.length)
+			undoPills=Arrays.copyOf(undoPills,Math.max(undoPills.length*2,undoPillsSize+numPillWords+numPowerPillWords));
+		
+		int i=undoDepth++*UNDO_FRAME;
+		int[] frame=undoFrames;
+		
+		frame[i++]=mazeIndex;
+		frame[i++]=levelCount;
+		frame[i++]=currentLevelTime;
+		frame[i++]=totalTime;
+		frame[i++]=score;
+		frame[i++]=ghostEatMultiplier;
+		frame[i++]=timeOfLastGlobalReversal;
+		frame[i++]=pacmanNodeIndex;
+		frame[i++]=pacmanNumberOfLivesRemaining;
+		frame[i++]=pacmanLastMoveMade.ordinal();
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
 		{
-			copy.ghosts.put(ghostType,ghosts.get(ghostType).copy());
-			copy.ghostsEaten.put(ghostType,ghostsEaten.get(ghostType));
+			frame[i++]=ghostNodeIndices[g];
+			frame[i++]=ghostEdibleTimes[g];
+			frame[i++]=ghostLairTimes[g];
+			frame[i++]=ghostLastMoves[g];
 		}
+		
+		int flags=(gameOver ? 1 : 0)|(pacmanWasEaten ? 2 : 0)|(pillWasEaten ? 4 : 0)|(powerPillWasEaten ? 8 : 0)|(pacmanHasReceivedExtraLife ? 16 : 0);
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+			if(ghostsEaten[g])
+				flags|=32<<g;
+		
+		frame[i++]=flags;
+		frame[i++]=(int)rngState;
+		frame[i++]=(int)(rngState>>>32);
+		frame[i++]=undoPillsSize;
+		
+		System.arraycopy(pills,0,undoPills,undoPillsSize,numPillWords);
+		undoPillsSize+=numPillWords;
+		System.arraycopy(powerPills,0,undoPills,undoPillsSize,numPowerPillWords);
+		undoPillsSize+=numPowerPillWords;
+	}
+	
+	/**
+	 * Updates the active pills to the pill words in the undo log at the offset given (before these
+	 * are restored): pills that are set in the log but not in the current words are added, and
+	 * vice versa.
+	 */
+	private void _restoreActivePills(int numBits,int offset)
+	{
+		int numWords=(numBits+63)>>>6;
+		
+		for(int w=0;w<numWords;w++)
+		{
+			long restored=undoPills[offset+w];
 			
-		return copy;	
+			for(long added=restored&~pills[w];added!=0;added&=added-1)
+				_addActivePill((w<<6)+Long.numberOfTrailingZeros(added));
+			
+			for(long removed=pills[w]&~restored;removed!=0;removed&=removed-1)
+				_removeActivePill((w<<6)+Long.numberOfTrailingZeros(removed));
+		}
+	}
+	
+	/**
+	 * Restores the words holding numBits bits from the undo log, starting at the offset given.
+	 *
+	 * @return the offset following the words restored
+	 */
+	private int _restoreWords(long[] words,int numBits,int offset)
+	{
+		int numWords=(numBits+63)>>>6;
+		
+		System.arraycopy(undoPills,offset,words,0,numWords);
+		
+		return offset+numWords;
 	}
 
 	/////////////////////////////////////////////////////////////////////////////
@@ -343,13 +910,15 @@ public final class Game
 	/**
 	 * Central method that advances the game state using the moves supplied by
 	 * the controllers. It first updates Ms Pac-Man, then the ghosts and then
-	 * the general game logic.
+	 * the general game logic. If the undo log is enabled, the state prior to
+	 * the update is recorded first (this applies to all advanceGame methods).
 	 *
 	 * @param pacManMove The move supplied by the Ms Pac-Man controller
 	 * @param ghostMoves The moves supplied by the ghosts controller
 	 */	
 	public void advanceGame(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
 	{		
+		_pushUndo();
 		updatePacMan(pacManMove);
 		updateGhosts(ghostMoves);	
 		updateGame();
@@ -357,6 +926,7 @@ public final class Game
 	
 	public void advanceGameWithoutReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
 	{		
+		_pushUndo();
 		updatePacMan(pacManMove);
 		updateGhostsWithoutReverse(ghostMoves);
 		updateGame();
@@ -364,6 +934,7 @@ public final class Game
 	
 	public void advanceGameWithForcedReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
 	{		
+		_pushUndo();
 		updatePacMan(pacManMove);
 		updateGhostsWithForcedReverse(ghostMoves);
 		updateGame();
@@ -371,6 +942,7 @@ public final class Game
 	
 	public void advanceGameWithPowerPillReverseOnly(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
 	{		
+		_pushUndo();
 		updatePacMan(pacManMove);
 		
 		if(powerPillWasEaten)
@@ -381,6 +953,48 @@ public final class Game
 		updateGame();
 	}
 		
+	/**
+	 * Advances the game until Ms Pac-Man faces her next decision. The move supplied is made first;
+	 * from then on, Ms Pac-Man follows the corridor she is in (the only move that is not a reversal)
+	 * while the ghosts are controlled by the ghost controller. The game stops as soon as Ms Pac-Man
+	 * reaches a junction, is eaten, eats a power pill or a ghost, or the level or the game ends.
+	 * This allows search and learning controllers to skip the many ticks in which Ms Pac-Man has no
+	 * real choice. Each tick is a regular call to advanceGame(), so the ticks are recorded in the
+	 * undo log if it is enabled.
+	 * 
+	 * For efficiency, the ghost controller is handed this game rather than a copy (with no time
+	 * limit); it must not modify the game.
+	 *
+	 * @param pacManMove The move for Ms Pac-Man to make first
+	 * @param ghostController The ghosts controller, or null if the ghosts are to keep their last moves
+	 * @return the number of ticks the game was advanced by
+	 */
+	public int advanceToNextDecision(MOVE pacManMove,Controller<EnumMap<GHOST,MOVE>> ghostController)
+	{
+		int ticks=0;
+		int level=levelCount;
+		MOVE move=pacManMove;
+		
+		while(true)
+		{
+			advanceGame(move,ghostController==null ? null : ghostController.getMove(this,-1));
+			ticks++;
+			
+			if(gameOver || pacmanWasEaten || powerPillWasEaten || levelCount!=level || getNumGhostsEaten()>0)
+				return ticks;
+			
+			if(currentMaze.graph[pacmanNodeIndex].numNeighbouringNodes>2)
+				return ticks;
+			
+			int moves=currentMaze.moveMasks[pacmanNodeIndex*5+pacmanLastMoveMade.ordinal()];
+			
+			if(pacmanLastMoveMade==MOVE.NEUTRAL || Integer.bitCount(moves)!=1)		//standing still or in a dead end: nothing to follow
+				return ticks;
+			
+			move=MOVES[Integer.numberOfTrailingZeros(moves)];
+		}
+	}
+	
 	/**
 	 * Updates the state of Ms Pac-Man given the move returned by the controller.
 	 *
@@ -462,10 +1076,16 @@ public final class Game
 	 */
 	private void _updateLairTimes()
 	{
-		for(Ghost ghost : ghosts.values())
-			if(ghost.lairTime>0)
-				if(--ghost.lairTime==0)
-					ghost.currentNodeIndex=currentMaze.initialGhostNodeIndex;
+		for(int g=0;g<NUM_GHOSTS;g++)
+			if(ghostLairTimes[g]>0)
+			{
+				stateHash^=_ghostKey(g);
+				
+				if(--ghostLairTimes[g]==0)
+					ghostNodeIndices[g]=currentMaze.initialGhostNodeIndex;
+				
+				stateHash^=_ghostKey(g);
+			}
 	}
 	
 	/**
@@ -473,10 +1093,11 @@ public final class Game
 	 */
 	private void _updatePacManExtraLife()
 	{
-		if(!pacman.hasReceivedExtraLife && score>=EXTRA_LIFE_SCORE)	//award 1 extra life at 10000 points
+		if(!pacmanHasReceivedExtraLife && score>=EXTRA_LIFE_SCORE)	//award 1 extra life at 10000 points
 		{
-			pacman.hasReceivedExtraLife=true;
-			pacman.numberOfLivesRemaining++;
+			pacmanHasReceivedExtraLife=true;
+			stateHash^=_zobrist(Z_LIVES,pacmanNumberOfLivesRemaining)^_zobrist(Z_LIVES,pacmanNumberOfLivesRemaining+1);
+			pacmanNumberOfLivesRemaining++;
 		}
 	}
 	
@@ -487,9 +1108,13 @@ public final class Game
 	 */
 	private void _updatePacMan(MOVE move)
 	{
-		pacman.lastMoveMade=_correctPacManDir(move);		
-		pacman.currentNodeIndex=pacman.lastMoveMade == MOVE.NEUTRAL ? pacman.currentNodeIndex : 
-			currentMaze.graph[pacman.currentNodeIndex].neighbourhood.get(pacman.lastMoveMade);
+		stateHash^=_pacmanKey();
+		
+		pacmanLastMoveMade=_correctPacManDir(move);		
+		pacmanNodeIndex=pacmanLastMoveMade == MOVE.NEUTRAL ? pacmanNodeIndex : 
+			currentMaze.neighbours[pacmanNodeIndex*4+pacmanLastMoveMade.ordinal()];
+		
+		stateHash^=_pacmanKey();
 	}
 
 	/**
@@ -500,16 +1125,16 @@ public final class Game
 	 */
 	private MOVE _correctPacManDir(MOVE direction)
 	{
-		Node node=currentMaze.graph[pacman.currentNodeIndex];
+		int possible=currentMaze.moveMasks[pacmanNodeIndex*5+MOVE.NEUTRAL.ordinal()];
 		
 		//direction is correct, return it
-		if(node.neighbourhood.containsKey(direction))
+		if(direction!=null && (possible&(1<<direction.ordinal()))!=0)
 			return direction;
 		else
 		{
 			//try to use previous direction (i.e., continue in the same direction)
-			if(node.neighbourhood.containsKey(pacman.lastMoveMade))
-				return pacman.lastMoveMade;
+			if((possible&(1<<pacmanLastMoveMade.ordinal()))!=0)
+				return pacmanLastMoveMade;
 			//else stay put
 			else
 				return MOVE.NEUTRAL;
@@ -525,15 +1150,18 @@ public final class Game
 	{
 		for(Entry<GHOST,MOVE> entry : moves.entrySet())
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
+			int g=entry.getKey().ordinal();
 
-			if(ghost.lairTime==0)
+			if(ghostLairTimes[g]==0)
 			{
-				if(ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0)
+				if(ghostEdibleTimes[g]==0 || ghostEdibleTimes[g]%GHOST_SPEED_REDUCTION!=0)
 				{
-					ghost.lastMoveMade=_checkGhostDir(ghost,entry.getValue());					
-					moves.put(entry.getKey(), ghost.lastMoveMade);					
-					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					MOVE move=_checkGhostDir(g,entry.getValue());
+					stateHash^=_ghostKey(g);
+					ghostLastMoves[g]=move.ordinal();
+					entry.setValue(move);
+					ghostNodeIndices[g]=currentMaze.neighbours[ghostNodeIndices[g]*4+move.ordinal()];
+					stateHash^=_ghostKey(g);
 				}
 			}
 		}
@@ -545,8 +1173,8 @@ public final class Game
 		{
 			moves=new EnumMap<GHOST,MOVE>(GHOST.class);
 			
-			for(GHOST ghostType : GHOST.values())
-				moves.put(ghostType,ghosts.get(ghostType).lastMoveMade);
+			for(GHOST ghostType : GHOSTS)
+				moves.put(ghostType,MOVES[ghostLastMoves[ghostType.ordinal()]]);
 		}
 		
 		if(moves.size()<NUM_GHOSTS)
@@ -560,26 +1188,29 @@ public final class Game
 	/**
 	 * _check ghost dir.
 	 *
-	 * @param ghost the ghost
+	 * @param g the ghost's ordinal
 	 * @param direction the direction
 	 * @return the mOVE
 	 */
-	private MOVE _checkGhostDir(Ghost ghost,MOVE direction)
+	private MOVE _checkGhostDir(int g,MOVE direction)
 	{
-		//Gets the neighbours of the node with the node that would correspond to reverse removed
-		Node node=currentMaze.graph[ghost.currentNodeIndex];
+		//The moves possible at the node of the ghost, with the one that would correspond to reverse removed
+		int possible=currentMaze.moveMasks[ghostNodeIndices[g]*5+ghostLastMoves[g]];
 		
 		//The direction is possible and not opposite to the previous direction of that ghost
-		if(node.neighbourhood.containsKey(direction) && direction!=ghost.lastMoveMade.opposite())
+		if(direction!=null && (possible&(1<<direction.ordinal()))!=0)
 			return direction;
 		else
 		{
-			if(node.neighbourhood.containsKey(ghost.lastMoveMade))
-				return ghost.lastMoveMade;
+			if((possible&(1<<ghostLastMoves[g]))!=0)
+				return MOVES[ghostLastMoves[g]];
 			else
 			{
-				MOVE[] moves=node.allPossibleMoves.get(ghost.lastMoveMade);
-				return moves[rnd.nextInt(moves.length)];				
+				//one of the possible moves at random, in the order of MOVE (as Node.allPossibleMoves)
+				for(int k=_nextInt(Integer.bitCount(possible));k>0;k--)
+					possible&=possible-1;
+				
+				return MOVES[Integer.numberOfTrailingZeros(possible)];
 			}
 		}
 	}
@@ -591,12 +1222,14 @@ public final class Game
 	{
 		pillWasEaten=false;
 		
-		int pillIndex=currentMaze.graph[pacman.currentNodeIndex].pillIndex;
+		int pillIndex=currentMaze.graph[pacmanNodeIndex].pillIndex;
 
-		if(pillIndex>=0 && pills.get(pillIndex))
+		if(pillIndex>=0 && _get(pills,pillIndex))
 		{
 			score+=PILL;
-			pills.clear(pillIndex);
+			_clear(pills,pillIndex);
+			_removeActivePill(pillIndex);
+			stateHash^=_zobrist(Z_PILL,pillIndex);
 			pillWasEaten=true;
 		}
 	}
@@ -608,21 +1241,28 @@ public final class Game
 	{
 		powerPillWasEaten=false;	
 		
-		int powerPillIndex=currentMaze.graph[pacman.currentNodeIndex].powerPillIndex;
+		int powerPillIndex=currentMaze.graph[pacmanNodeIndex].powerPillIndex;
 		
-		if(powerPillIndex>=0 && powerPills.get(powerPillIndex))
+		if(powerPillIndex>=0 && _get(powerPills,powerPillIndex))
 		{
 			score+=POWER_PILL;
 			ghostEatMultiplier=1;
-			powerPills.clear(powerPillIndex);
+			_clear(powerPills,powerPillIndex);
+			stateHash^=_zobrist(Z_POWER_PILL,powerPillIndex);
 			
 			int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
 			
-			for(Ghost ghost : ghosts.values())
-				if(ghost.lairTime==0)
-					ghost.edibleTime=newEdibleTime;
+			for(int g=0;g<NUM_GHOSTS;g++)
+			{
+				stateHash^=_ghostKey(g);
+				
+				if(ghostLairTimes[g]==0)
+					ghostEdibleTimes[g]=newEdibleTime;
 				else
-					ghost.edibleTime=0;
+					ghostEdibleTimes[g]=0;
+				
+				stateHash^=_ghostKey(g);
+			}
 			
 			powerPillWasEaten=true;
 		}
@@ -633,19 +1273,22 @@ public final class Game
 		boolean reversed=false;		
 		boolean globalReverse=false;
 			
-		if(Math.random()<GHOST_REVERSAL)
+		if(_nextDouble()<GHOST_REVERSAL)
 			globalReverse=true;
 		
 		for(Entry<GHOST,MOVE> entry : moves.entrySet())
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
+			int g=entry.getKey().ordinal();
 		
-			if(currentLevelTime>1 && ghost.lairTime==0 && ghost.lastMoveMade!=MOVE.NEUTRAL)
+			if(currentLevelTime>1 && ghostLairTimes[g]==0 && ghostLastMoves[g]!=MOVE.NEUTRAL.ordinal())
 			{
 				if(force || (powerPillWasEaten || globalReverse))
 				{
-					ghost.lastMoveMade=ghost.lastMoveMade.opposite();
-					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					MOVE reverse=MOVES[ghostLastMoves[g]].opposite();
+					stateHash^=_ghostKey(g);
+					ghostLastMoves[g]=reverse.ordinal();
+					ghostNodeIndices[g]=currentMaze.neighbours[ghostNodeIndices[g]*4+reverse.ordinal()];
+					stateHash^=_ghostKey(g);
 					reversed=true;
 					timeOfLastGlobalReversal = totalTime;
 				}
@@ -662,32 +1305,35 @@ public final class Game
 	{		
 		pacmanWasEaten=false;
 		
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,false);
+		for(int g=0;g<NUM_GHOSTS;g++)
+			ghostsEaten[g]=false;
 		
-		for(Ghost ghost : ghosts.values())
+		for(int g=0;g<NUM_GHOSTS;g++)
 		{
-			int distance=getShortestPathDistance(pacman.currentNodeIndex, ghost.currentNodeIndex);
+			int distance=getShortestPathDistance(pacmanNodeIndex, ghostNodeIndices[g]);
 			
 			if(distance<=EAT_DISTANCE && distance!=-1)
 			{
-				if(ghost.edibleTime>0)									//pac-man eats ghost
+				if(ghostEdibleTimes[g]>0)								//pac-man eats ghost
 				{
 					score+=GHOST_EAT_SCORE*ghostEatMultiplier;
 					ghostEatMultiplier*=2;
-					ghost.edibleTime=0;					
-					ghost.lairTime=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));					
-					ghost.currentNodeIndex=currentMaze.lairNodeIndex;
-					ghost.lastMoveMade=MOVE.NEUTRAL;
+					stateHash^=_ghostKey(g);
+					ghostEdibleTimes[g]=0;					
+					ghostLairTimes[g]=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));					
+					ghostNodeIndices[g]=currentMaze.lairNodeIndex;
+					ghostLastMoves[g]=MOVE.NEUTRAL.ordinal();
+					stateHash^=_ghostKey(g);
 					
-					ghostsEaten.put(ghost.type, true);
+					ghostsEaten[g]=true;
 				}
 				else													//ghost eats pac-man
 				{
-					pacman.numberOfLivesRemaining--;
+					stateHash^=_zobrist(Z_LIVES,pacmanNumberOfLivesRemaining)^_zobrist(Z_LIVES,pacmanNumberOfLivesRemaining-1);
+					pacmanNumberOfLivesRemaining--;
 					pacmanWasEaten=true;
 					
-					if(pacman.numberOfLivesRemaining<=0)
+					if(pacmanNumberOfLivesRemaining<=0)
 						gameOver=true;
 					else
 						_levelReset();
@@ -697,25 +1343,171 @@ public final class Game
 			}
 		}
 		
-		for(Ghost ghost : ghosts.values())
-			if(ghost.edibleTime>0)
-				ghost.edibleTime--;
+		for(int g=0;g<NUM_GHOSTS;g++)
+			if(ghostEdibleTimes[g]>0)
+			{
+				stateHash^=_zobrist(Z_GHOST+4*g+2,ghostEdibleTimes[g])^_zobrist(Z_GHOST+4*g+2,ghostEdibleTimes[g]-1);
+				ghostEdibleTimes[g]--;
+			}
+	}
+	
+	/**
+	 * _check level state.
+	 */
+	private void _checkLevelState()
+	{
+		//put a cap on the total time a game can be played for
+		if(totalTime+1>MAX_TIME)
+		{
+			gameOver=true;
+			score+=pacmanNumberOfLivesRemaining*AWARD_LIFE_LEFT;
+		}
+		//if all pills have been eaten or the time is up...
+		else if((_isEmpty(pills) && _isEmpty(powerPills)) || currentLevelTime>=LEVEL_LIMIT)
+			_newLevelReset();
+	}
+
+	/**
+	 * Whether bit i of the given words is set.
+	 */
+	private static boolean _get(long[] words,int i)
+	{
+		return (words[i>>>6]&(1L<<i))!=0;
+	}
+	
+	/**
+	 * Sets bit i of the given words.
+	 */
+	private static void _set(long[] words,int i)
+	{
+		words[i>>>6]|=1L<<i;
+	}
+	
+	/**
+	 * Clears bit i of the given words.
+	 */
+	private static void _clear(long[] words,int i)
+	{
+		words[i>>>6]&=~(1L<<i);
+	}
+	
+	/**
+	 * The number of bits set in the given words.
+	 */
+	private static int _cardinality(long[] words)
+	{
+		int count=0;
+		
+		for(int i=0;i<words.length;i++)
+			count+=Long.bitCount(words[i]);
+		
+		return count;
+	}
+	
+	/**
+	 * Whether no bit is set in the given words.
+	 */
+	private static boolean _isEmpty(long[] words)
+	{
+		for(int i=0;i<words.length;i++)
+			if(words[i]!=0)
+				return false;
+		
+		return true;
+	}
+	
+	//the increment of the SplitMix64 generator
+	static final long GOLDEN_GAMMA=0x9E3779B97F4A7C15L;
+	
+	/**
+	 * The SplitMix64 finaliser: scrambles the bits of z into a well distributed 64-bit value. It
+	 * drives the random numbers of the game (and of BatchGame) and derives the Zobrist keys.
+	 */
+	static long mix64(long z)
+	{
+		z=(z^(z>>>30))*0xBF58476D1CE4E5B9L;
+		z=(z^(z>>>27))*0x94D049BB133111EBL;
+		
+		return z^(z>>>31);
+	}
+	
+	/**
+	 * The next random number of the game's generator. Unlike Math.random(), the generator is held
+	 * in a single primitive: it is not shared between games (or threads) and is copied exactly.
+	 */
+	private long _nextLong()
+	{
+		return mix64(rngState+=GOLDEN_GAMMA);
+	}
+	
+	/**
+	 * A random int in [0,bound).
+	 */
+	private int _nextInt(int bound)
+	{
+		return (int)(((_nextLong()>>>32)*bound)>>>32);
+	}
+	
+	/**
+	 * A random double in [0,1).
+	 */
+	private double _nextDouble()
+	{
+		return (_nextLong()>>>11)*0x1.0p-53;
+	}
+	
+	//the features making up the Zobrist hash; ghost g uses Z_GHOST+4*g+{0,1,2,3} for node, move, edible time and lair time
+	private static final int Z_MAZE=0,Z_LEVEL=1,Z_LIVES=2,Z_PACMAN_NODE=3,Z_PACMAN_MOVE=4,Z_PILL=5,Z_POWER_PILL=6,Z_GHOST=7;
+	
+	/**
+	 * Returns the Zobrist key of the given feature taking the value supplied. Rather than storing
+	 * tables of random numbers, the keys are derived on the fly by scrambling the (feature,value)
+	 * pair with the SplitMix64 finaliser, which yields well distributed 64-bit keys.
+	 */
+	private static long _zobrist(int feature,int value)
+	{
+		return mix64(((((long)feature)<<32)|(value&0xffffffffL))*GOLDEN_GAMMA);
+	}
+	
+	/**
+	 * The part of the hash contributed by Ms Pac-Man's position and direction.
+	 */
+	private long _pacmanKey()
+	{
+		return _zobrist(Z_PACMAN_NODE,pacmanNodeIndex)^_zobrist(Z_PACMAN_MOVE,pacmanLastMoveMade.ordinal());
+	}
+	
+	/**
+	 * The part of the hash contributed by the ghost specified.
+	 */
+	private long _ghostKey(int g)
+	{
+		int feature=Z_GHOST+4*g;
+		
+		return _zobrist(feature,ghostNodeIndices[g])^_zobrist(feature+1,ghostLastMoves[g])
+				^_zobrist(feature+2,ghostEdibleTimes[g])^_zobrist(feature+3,ghostLairTimes[g]);
 	}
 	
 	/**
-	 * _check level state.
+	 * Computes the hash of the current state from scratch. This is only required when large parts
+	 * of the state change at once; otherwise, the hash is updated incrementally.
 	 */
-	private void _checkLevelState()
+	private long _computeHash()
 	{
-		//put a cap on the total time a game can be played for
-		if(totalTime+1>MAX_TIME)
-		{
-			gameOver=true;
-			score+=pacman.numberOfLivesRemaining*AWARD_LIFE_LEFT;
-		}
-		//if all pills have been eaten or the time is up...
-		else if((pills.isEmpty() && powerPills.isEmpty()) || currentLevelTime>=LEVEL_LIMIT)
-			_newLevelReset();
+		long hash=_zobrist(Z_MAZE,mazeIndex)^_zobrist(Z_LEVEL,levelCount)^_zobrist(Z_LIVES,pacmanNumberOfLivesRemaining)^_pacmanKey();
+		
+		for(int g=0;g<NUM_GHOSTS;g++)
+			hash^=_ghostKey(g);
+		
+		for(int i=0;i<currentMaze.pillIndices.length;i++)
+			if(_get(pills,i))
+				hash^=_zobrist(Z_PILL,i);
+		
+		for(int i=0;i<currentMaze.powerPillIndices.length;i++)
+			if(_get(powerPills,i))
+				hash^=_zobrist(Z_POWER_PILL,i);
+		
+		return hash;
 	}
 
 	/////////////////////////////////////////////////////////////////////////////
@@ -739,15 +1531,15 @@ public final class Game
 	 */
 	public boolean wasGhostEaten(GHOST ghost)
 	{
-		return ghostsEaten.get(ghost);
+		return ghostsEaten[ghost.ordinal()];
 	}
 	
 	public int getNumGhostsEaten()
 	{
 		int count=0;
 		
-		for(GHOST ghost : GHOST.values())
-			if(ghostsEaten.get(ghost))
+		for(int g=0;g<NUM_GHOSTS;g++)
+			if(ghostsEaten[g])
 				count++;
 		
 		return count;
@@ -783,6 +1575,21 @@ public final class Game
 		return timeOfLastGlobalReversal;
 	}
 	
+	/**
+	 * Returns a 64-bit Zobrist hash of the state of the game. The hash covers the maze, the level,
+	 * the lives left, the positions and directions of all characters, the edible and lair times of
+	 * the ghosts and the pills and power pills that remain. The score, the time and the flags of
+	 * the last time step (e.g., wasPillEaten()) are not included, so positions reached via different
+	 * routes share the same hash. The hash is maintained incrementally as the game advances and
+	 * may be used as a key for a TranspositionTable.
+	 * 
+	 * @return the hash of the current state
+	 */
+	public long getStateHash()
+	{
+		return stateHash;
+	}
+	
 	/**
 	 * Checks whether the game is over or not: all lives are lost or 16 levels have been 
 	 * played. The variable is set by the methods _feast() and _checkLevelState().
@@ -804,6 +1611,62 @@ public final class Game
 		return currentMaze;
 	}
 	
+	/**
+	 * Returns the maze with the given index. The mazes are shared by all games (see BatchGame).
+	 * 
+	 * @param mazeIndex The index of the maze
+	 * @return The maze.
+	 */
+	static Maze getMaze(int mazeIndex)
+	{
+		Maze maze=mazes[mazeIndex];
+		
+		return maze!=null ? maze : _loadMaze(mazeIndex);
+	}
+	
+	/**
+	 * Loads a maze, along with its initial pill distance fields, unless another thread has done so already.
+	 */
+	private static synchronized Maze _loadMaze(int mazeIndex)
+	{
+		if(mazes[mazeIndex]==null)
+		{
+			Maze maze=new Maze(mazeIndex);
+			
+			initialPillFields[mazeIndex]=new PillDistanceField(maze,maze.pillIndices);
+			initialPowerPillFields[mazeIndex]=new PillDistanceField(maze,maze.powerPillIndices);
+			
+			Maze[] loaded=mazes.clone();
+			loaded[mazeIndex]=maze;
+			mazes=loaded;
+		}
+		
+		return mazes[mazeIndex];
+	}
+	
+	/**
+	 * Returns the paths cache of a maze, which is created the first time it is needed.
+	 */
+	private static PathsCache _getPathsCache(int mazeIndex)
+	{
+		PathsCache cache=caches[mazeIndex];
+		
+		if(cache!=null)
+			return cache;
+		
+		synchronized(Game.class)
+		{
+			if(caches[mazeIndex]==null)
+			{
+				PathsCache[] created=caches.clone();
+				created[mazeIndex]=new PathsCache(mazeIndex);
+				caches=created;
+			}
+			
+			return caches[mazeIndex];
+		}
+	}
+	
 	/**
 	 * Returns the x coordinate of the specified node.
 	 *
@@ -885,7 +1748,7 @@ public final class Game
 	 */
 	public boolean isPillStillAvailable(int pillIndex)
 	{
-		return pills.get(pillIndex);
+		return _get(pills,pillIndex);
 	}
 	
 	/**
@@ -896,7 +1759,7 @@ public final class Game
 	 */
 	public boolean isPowerPillStillAvailable(int powerPillIndex)
 	{
-		return powerPills.get(powerPillIndex);
+		return _get(powerPills,powerPillIndex);
 	}
 	
 	/**
@@ -960,7 +1823,7 @@ public final class Game
 	 */
 	public int getPacmanCurrentNodeIndex()
 	{
-		return pacman.currentNodeIndex;
+		return pacmanNodeIndex;
 	}
 	
 	/**
@@ -970,7 +1833,7 @@ public final class Game
 	 */
 	public MOVE getPacmanLastMoveMade()
 	{
-		return pacman.lastMoveMade;
+		return pacmanLastMoveMade;
 	}
 	
 	/**
@@ -980,7 +1843,7 @@ public final class Game
 	 */
 	public int getPacmanNumberOfLivesRemaining()
 	{
-		return pacman.numberOfLivesRemaining;
+		return pacmanNumberOfLivesRemaining;
 	}
 	
 	/**
@@ -991,7 +1854,7 @@ public final class Game
 	 */
 	public int getGhostCurrentNodeIndex(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).currentNodeIndex;
+		return ghostNodeIndices[ghostType.ordinal()];
 	}
 
 	/**
@@ -1002,7 +1865,7 @@ public final class Game
 	 */
 	public MOVE getGhostLastMoveMade(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).lastMoveMade;
+		return MOVES[ghostLastMoves[ghostType.ordinal()]];
 	}
 	
 	/**
@@ -1013,7 +1876,7 @@ public final class Game
 	 */
 	public int getGhostEdibleTime(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).edibleTime;
+		return ghostEdibleTimes[ghostType.ordinal()];
 	}
 	
 	/**
@@ -1024,7 +1887,7 @@ public final class Game
 	 */
 	public boolean isGhostEdible(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).edibleTime>0;
+		return ghostEdibleTimes[ghostType.ordinal()]>0;
 	}
 
 	/**
@@ -1078,13 +1941,13 @@ public final class Game
 	}
 	
 	/**
-	 * Total number of pills in the mazes[gs.curMaze]
+	 * Total number of active pills in the mazes[gs.curMaze]. This takes constant time.
 	 *
 	 * @return the number of active pills
 	 */
 	public int getNumberOfActivePills()
 	{
-		return pills.cardinality();
+		return numActivePills;
 	}
 	
 	/**
@@ -1094,7 +1957,7 @@ public final class Game
 	 */
 	public int getNumberOfActivePowerPills()
 	{
-		return powerPills.cardinality();
+		return _cardinality(powerPills);
 	}
 	
 	/**
@@ -1105,27 +1968,54 @@ public final class Game
 	 */
 	public int getGhostLairTime(GHOST ghostType)
 	{
-		return ghosts.get(ghostType).lairTime;
+		return ghostLairTimes[ghostType.ordinal()];
 	}
 	
 	/**
-	 * returns the indices of all active pills in the mazes[gs.curMaze]
+	 * returns the indices of all active pills in the mazes[gs.curMaze], in ascending order. This
+	 * creates a new array on every call; see forEachActivePill() and getActivePillNodeIndex() for
+	 * allocation-free alternatives.
 	 *
 	 * @return the active pills indices
 	 */
 	public int[] getActivePillsIndices()
 	{
-		int[] indices=new int[pills.cardinality()];
+		int[] indices=new int[numActivePills];
 		
 		int index=0;
 		
-		for(int i=0;i<currentMaze.pillIndices.length;i++)
-			if(pills.get(i))
-				indices[index++]=currentMaze.pillIndices[i];		
+		for(int w=0;w<pills.length;w++)
+			for(long word=pills[w];word!=0;word&=word-1)
+				indices[index++]=currentMaze.pillIndices[(w<<6)+Long.numberOfTrailingZeros(word)];
 			
 		return indices;
 	}
 	
+	/**
+	 * Passes the node index of every active pill to the action supplied, without creating any
+	 * objects. The pills are visited in no particular order.
+	 *
+	 * @param action The action to be performed for each active pill's node index
+	 */
+	public void forEachActivePill(IntConsumer action)
+	{
+		for(int i=0;i<numActivePills;i++)
+			action.accept(currentMaze.pillIndices[activePills[i]]);
+	}
+	
+	/**
+	 * Returns the node index of the i-th active pill, where 0<=i<getNumberOfActivePills(). Together
+	 * with getNumberOfActivePills(), this allows iterating over the active pills without creating
+	 * any objects. The order of the pills is unspecified and changes as pills are eaten.
+	 *
+	 * @param i The position of the pill amongst the active pills
+	 * @return the node index of the pill
+	 */
+	public int getActivePillNodeIndex(int i)
+	{
+		return currentMaze.pillIndices[activePills[i]];
+	}
+	
 	/**
 	 * returns the indices of all active power pills in the mazes[gs.curMaze]
 	 *
@@ -1133,12 +2023,12 @@ public final class Game
 	 */
 	public int[] getActivePowerPillsIndices()
 	{
-		int[] indices=new int[powerPills.cardinality()];
+		int[] indices=new int[_cardinality(powerPills)];
 		
 		int index=0;
 		
 		for(int i=0;i<currentMaze.powerPillIndices.length;i++)
-			if(powerPills.get(i))
+			if(_get(powerPills,i))
 				indices[index++]=currentMaze.powerPillIndices[i];		
 			
 		return indices;
@@ -1152,9 +2042,11 @@ public final class Game
 	 */
 	public boolean doesGhostRequireAction(GHOST ghostType)
 	{
+		int g=ghostType.ordinal();
+		
 		//inlcude neutral here for the unique case where the ghost just left the lair
-		return ((isJunction(ghosts.get(ghostType).currentNodeIndex) || (ghosts.get(ghostType).lastMoveMade==MOVE.NEUTRAL) && ghosts.get(ghostType).currentNodeIndex==currentMaze.initialGhostNodeIndex) 
-				&& (ghosts.get(ghostType).edibleTime==0 || ghosts.get(ghostType).edibleTime%GHOST_SPEED_REDUCTION!=0));
+		return ((isJunction(ghostNodeIndices[g]) || (ghostLastMoves[g]==MOVE.NEUTRAL.ordinal()) && ghostNodeIndices[g]==currentMaze.initialGhostNodeIndex) 
+				&& (ghostEdibleTimes[g]==0 || ghostEdibleTimes[g]%GHOST_SPEED_REDUCTION!=0));
 	}
 	
 	/**
@@ -1225,9 +2117,7 @@ public final class Game
     */
     public int getNeighbour(int nodeIndex, MOVE moveToBeMade)
     {
-    	Integer neighbour=currentMaze.graph[nodeIndex].neighbourhood.get(moveToBeMade);
-    	
-    	return neighbour==null ? -1 : neighbour;
+    	return moveToBeMade==null || moveToBeMade==MOVE.NEUTRAL ? -1 : currentMaze.neighbours[nodeIndex*4+moveToBeMade.ordinal()];
     }
     	
 	/**
@@ -1240,14 +2130,9 @@ public final class Game
 	 */
 	public MOVE getMoveToMakeToReachDirectNeighbour(int currentNodeIndex,int neighbourNodeIndex)
 	{
-		for(MOVE move : MOVE.values())
-		{
-			if(currentMaze.graph[currentNodeIndex].neighbourhood.containsKey(move) 
-					&& currentMaze.graph[currentNodeIndex].neighbourhood.get(move)==neighbourNodeIndex)
-			{
-				return move;
-			}
-		}
+		for(int m=0;m<4;m++)
+			if(currentMaze.neighbours[currentNodeIndex*4+m]==neighbourNodeIndex)
+				return MOVES[m];
 		
 		return null;
 	}
@@ -1267,10 +2152,8 @@ public final class Game
 	{
 		if(fromNodeIndex==toNodeIndex)
 			return 0;		
-		else if(fromNodeIndex<toNodeIndex)
-			return currentMaze.shortestPathDistances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex];
 		else
-			return currentMaze.shortestPathDistances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+			return currentMaze.getShortestPathDistance(fromNodeIndex,toNodeIndex);
 	}
 	
 	/**
@@ -1367,6 +2250,197 @@ public final class Game
 		return target;
 	}
 
+	/**
+	 * Returns the node index of the active pill (or power pill, if included) that is closest to the
+	 * node given in terms of the shortest path distance, or -1 if there is none. This is the same as
+	 * calling getClosestNodeIndexFromNodeIndex() with DM.PATH on the active pills followed by the
+	 * active power pills (ties are resolved the same way) but it is answered from the distance fields
+	 * (see getDistanceToNearestPill()) without creating any arrays.
+	 *
+	 * @param fromNodeIndex the from node index
+	 * @param includePowerPills whether to include the active power pills
+	 * @return the node index of the closest active pill
+	 */
+	public int getClosestActivePillNodeIndex(int fromNodeIndex,boolean includePowerPills)
+	{
+		int target=getNearestPillNodeIndex(fromNodeIndex);
+		
+		if(includePowerPills)
+		{
+			int powerPill=getNearestPowerPillNodeIndex(fromNodeIndex);
+			
+			if(powerPill!=-1 && (target==-1 || getDistanceToNearestPowerPill(fromNodeIndex)<getDistanceToNearestPill(fromNodeIndex)))
+				target=powerPill;
+		}
+		
+		if(target==-1 && (numActivePills>0 || (includePowerPills && !_isEmpty(powerPills))))
+			return _getClosestActivePillNodeIndex(fromNodeIndex,includePowerPills);	//the node is cut off from the maze (e.g., the lair)
+		
+		return target;
+	}
+	
+	/**
+	 * Returns the distance from the node given to the nearest active pill, or Integer.MAX_VALUE if there is
+	 * none. The distances are kept in a distance field that is repaired incrementally as pills are eaten
+	 * (only the nodes that were closest to the pills eaten are recomputed), so the query takes constant time
+	 * unless pills have been eaten since the last query.
+	 *
+	 * @param nodeIndex the node index
+	 * @return the shortest path distance to the nearest active pill
+	 */
+	public int getDistanceToNearestPill(int nodeIndex)
+	{
+		return _pillField().getDistance(nodeIndex);
+	}
+	
+	/**
+	 * Returns the node index of the nearest active pill (the lowest one if several are equally near), or
+	 * -1 if there is none. See getDistanceToNearestPill().
+	 *
+	 * @param nodeIndex the node index
+	 * @return the node index of the nearest active pill
+	 */
+	public int getNearestPillNodeIndex(int nodeIndex)
+	{
+		return _pillField().getNearest(nodeIndex);
+	}
+	
+	/**
+	 * Returns the distance from the node given to the nearest active power pill, or Integer.MAX_VALUE if
+	 * there is none. See getDistanceToNearestPill().
+	 *
+	 * @param nodeIndex the node index
+	 * @return the shortest path distance to the nearest active power pill
+	 */
+	public int getDistanceToNearestPowerPill(int nodeIndex)
+	{
+		return _powerPillField().getDistance(nodeIndex);
+	}
+	
+	/**
+	 * Returns the node index of the nearest active power pill (the lowest one if several are equally near),
+	 * or -1 if there is none. See getDistanceToNearestPill().
+	 *
+	 * @param nodeIndex the node index
+	 * @return the node index of the nearest active power pill
+	 */
+	public int getNearestPowerPillNodeIndex(int nodeIndex)
+	{
+		return _powerPillField().getNearest(nodeIndex);
+	}
+
+	/**
+	 * Fills the buffer given with the distance from the nearest of the sources to every node of the current maze, using
+	 * a single breadth-first search instead of one getShortestPathDistance() call per source and node. Nodes that cannot
+	 * be reached get Integer.MAX_VALUE. If reversing is not allowed, every source may start in any direction but may not
+	 * reverse afterwards (as the ghosts), so the distances are those of the shortest walks without reversals. Nothing is
+	 * allocated.
+	 *
+	 * @param sources The node indices of the sources (entries of -1 are ignored)
+	 * @param respectNoReverse Whether the sources may not reverse
+	 * @param out The buffer for the distances, indexed by node index (at least getNumberOfNodes() long)
+	 * @return the buffer given
+	 */
+	public int[] computeDistanceField(int[] sources,boolean respectNoReverse,int[] out)
+	{
+		DistanceFields.compute(currentMaze,sources,respectNoReverse ? _neutralMoves(sources.length) : null,out);
+
+		return out;
+	}
+
+	/**
+	 * As computeDistanceField(sources,true,out) but each source starts with the last move given, which it may not
+	 * reverse (MOVE.NEUTRAL allows any first move). This gives, for instance, the distance from the nearest ghost
+	 * to every node when called with the ghosts' positions and last moves.
+	 *
+	 * @param sources The node indices of the sources (entries of -1 are ignored)
+	 * @param lastMoves The last move made at each source
+	 * @param out The buffer for the distances, indexed by node index (at least getNumberOfNodes() long)
+	 * @return the buffer given
+	 */
+	public int[] computeDistanceField(int[] sources,MOVE[] lastMoves,int[] out)
+	{
+		DistanceFields.compute(currentMaze,sources,lastMoves,out);
+
+		return out;
+	}
+
+	/**
+	 * An array of NEUTRAL moves at least as long as requested (shared, never modified).
+	 */
+	private static MOVE[] _neutralMoves(int length)
+	{
+		MOVE[] moves=neutralMoves;
+
+		if(moves.length<length)
+		{
+			moves=new MOVE[Math.max(length,NUM_GHOSTS+1)];
+			Arrays.fill(moves,MOVE.NEUTRAL);
+			neutralMoves=moves;
+		}
+
+		return moves;
+	}
+
+	/**
+	 * Brings the pill distance field up to date with the pills of the game.
+	 */
+	private PillDistanceField _pillField()
+	{
+		if(pillField==null || !pillField.reflects(currentMaze,pills))
+			pillField=(pillField!=null && pillField.getMaze()==currentMaze ? pillField : initialPillFields[mazeIndex]).sync(pills,this);
+		
+		return pillField;
+	}
+	
+	/**
+	 * Brings the power pill distance field up to date with the power pills of the game.
+	 */
+	private PillDistanceField _powerPillField()
+	{
+		if(powerPillField==null || !powerPillField.reflects(currentMaze,powerPills))
+			powerPillField=(powerPillField!=null && powerPillField.getMaze()==currentMaze ? powerPillField : initialPowerPillFields[mazeIndex]).sync(powerPills,this);
+		
+		return powerPillField;
+	}
+	
+	/**
+	 * The closest active pill computed by checking every pill.
+	 */
+	private int _getClosestActivePillNodeIndex(int fromNodeIndex,boolean includePowerPills)
+	{
+		int minDistance=Integer.MAX_VALUE;
+		int target=-1;
+		
+		for(int i=0;i<numActivePills;i++)
+		{
+			int pill=currentMaze.pillIndices[activePills[i]];
+			int distance=getShortestPathDistance(pill,fromNodeIndex);
+			
+			//the pills are unordered: on a tie, the lower index wins as it would come first in getActivePillsIndices()
+			if(distance<minDistance || (distance==minDistance && pill<target))
+			{
+				minDistance=distance;
+				target=pill;
+			}
+		}
+		
+		if(includePowerPills)
+			for(int i=0;i<currentMaze.powerPillIndices.length;i++)
+				if(_get(powerPills,i))
+				{
+					int distance=getShortestPathDistance(currentMaze.powerPillIndices[i],fromNodeIndex);
+					
+					if(distance<minDistance)
+					{
+						minDistance=distance;
+						target=currentMaze.powerPillIndices[i];
+					}
+				}
+		
+		return target;
+	}
+	
 	/**
 	 * Gets the farthest node index from node index.
 	 *
@@ -1406,18 +2480,22 @@ public final class Game
 	 */
 	public MOVE getNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && _isNode(toNodeIndex))
+			return _nextMoveAlongPath(fromNodeIndex,toNodeIndex,currentMaze.moveMasks[fromNodeIndex*5+MOVE.NEUTRAL.ordinal()],true);
+		
 		MOVE move=null;
 
 		double minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet())
+		for(int moves=currentMaze.moveMasks[fromNodeIndex*5+MOVE.NEUTRAL.ordinal()];moves!=0;moves&=moves-1)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			int m=Integer.numberOfTrailingZeros(moves);
+			double distance=getDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex,distanceMeasure);
 								
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1434,18 +2512,22 @@ public final class Game
 	 */
 	public MOVE getNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && _isNode(toNodeIndex))
+			return _nextMoveAlongPath(fromNodeIndex,toNodeIndex,currentMaze.moveMasks[fromNodeIndex*5+MOVE.NEUTRAL.ordinal()],false);
+		
 		MOVE move=null;
 
 		double maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet())
+		for(int moves=currentMaze.moveMasks[fromNodeIndex*5+MOVE.NEUTRAL.ordinal()];moves!=0;moves&=moves-1)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			int m=Integer.numberOfTrailingZeros(moves);
+			double distance=getDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex,distanceMeasure);
 								
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1463,18 +2545,22 @@ public final class Game
 	 */
 	public MOVE getApproximateNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && _isNode(toNodeIndex))
+			return _nextMoveAlongPath(fromNodeIndex,toNodeIndex,currentMaze.moveMasks[fromNodeIndex*5+lastMoveMade.ordinal()],true);
+		
 		MOVE move=null;
 
 		double minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		for(int moves=currentMaze.moveMasks[fromNodeIndex*5+lastMoveMade.ordinal()];moves!=0;moves&=moves-1)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			int m=Integer.numberOfTrailingZeros(moves);
+			double distance=getDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex,distanceMeasure);
 								
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1492,18 +2578,22 @@ public final class Game
 	 */
 	public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && _isNode(toNodeIndex))
+			return _nextMoveAlongPath(fromNodeIndex,toNodeIndex,currentMaze.moveMasks[fromNodeIndex*5+lastMoveMade.ordinal()],false);
+		
 		MOVE move=null;
 
 		double maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		for(int moves=currentMaze.moveMasks[fromNodeIndex*5+lastMoveMade.ordinal()];moves!=0;moves&=moves-1)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			int m=Integer.numberOfTrailingZeros(moves);
+			double distance=getDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex,distanceMeasure);
 								
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1525,14 +2615,15 @@ public final class Game
 
 		double minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		for(int moves=currentMaze.moveMasks[fromNodeIndex*5+lastMoveMade.ordinal()];moves!=0;moves&=moves-1)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,lastMoveMade,distanceMeasure);
+			int m=Integer.numberOfTrailingZeros(moves);
+			double distance=getDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex,lastMoveMade,distanceMeasure);
 								
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
@@ -1554,20 +2645,51 @@ public final class Game
 
 		double maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		for(int moves=currentMaze.moveMasks[fromNodeIndex*5+lastMoveMade.ordinal()];moves!=0;moves&=moves-1)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,lastMoveMade,distanceMeasure);
+			int m=Integer.numberOfTrailingZeros(moves);
+			double distance=getDistance(currentMaze.neighbours[fromNodeIndex*4+m],toNodeIndex,lastMoveMade,distanceMeasure);
 								
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();	
+				move=MOVES[m];	
 			}
 		}
 		
 		return move;
 	}
 
+	/**
+	 * The next move along the shortest path towards (or away from) the target, out of the moves given as a bit mask. On a tie,
+	 * the first of these moves in the order of MOVE is chosen, as the loops over the neighbourhoods of the nodes do.
+	 */
+	private MOVE _nextMoveAlongPath(int fromNodeIndex,int toNodeIndex,int moves,boolean towards)
+	{
+		int distances=currentMaze.getNeighbourDistances(fromNodeIndex,toNodeIndex);
+		int best=-1;
+		int bestDistance=towards ? 4 : 0;
+		
+		for(;moves!=0;moves&=moves-1)
+		{
+			int m=Integer.numberOfTrailingZeros(moves);
+			int distance=(distances>>>(2*m))&3;
+			
+			if(towards ? distance<bestDistance : distance>bestDistance)
+			{
+				bestDistance=distance;
+				best=m;
+			}
+		}
+		
+		return best==-1 ? null : MOVES[best];
+	}
+	
+	private boolean _isNode(int nodeIndex)
+	{
+		return nodeIndex>=0 && nodeIndex<currentMaze.graph.length;
+	}
+	
 	/**
 	 * Gets the A* path considering previous moves made (i.e., opposing actions are ignored)
 	 *
@@ -1593,7 +2715,36 @@ public final class Game
 	 */
 	public int[] getShortestPath(int fromNodeIndex,int toNodeIndex)
 	{
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex);
+		return _getPathsCache(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex);
+	}
+	
+	/**
+	 * As getShortestPath(fromNodeIndex,toNodeIndex) but the path is written into the buffer supplied instead
+	 * of a new array. If the buffer is too short, only the beginning of the path is written.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param path The buffer to write the path into
+	 * @return the length of the path (which may exceed the length of the buffer)
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,int[] path)
+	{
+		return getShortestPath(fromNodeIndex,toNodeIndex,_pathCursor()).copyTo(path);
+	}
+	
+	/**
+	 * As getShortestPath(fromNodeIndex,toNodeIndex) but the path is not copied: the IntPath supplied is set
+	 * to refer to the pre-computed segments the path consists of. Nothing is allocated, so this is the
+	 * cheapest way to look at the first few nodes of a path or to count the pills along it.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param path The path to be set (valid until it is used for another query)
+	 * @return the path supplied
+	 */
+	public IntPath getShortestPath(int fromNodeIndex,int toNodeIndex,IntPath path)
+	{
+		return _getPathsCache(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,path);
 	}
 	
 	/**
@@ -1629,7 +2780,51 @@ public final class Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return new int[0];
 
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return _getPathsCache(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+	}
+	
+	/**
+	 * As getShortestPath(fromNodeIndex,toNodeIndex,lastMoveMade) but the path is written into the buffer
+	 * supplied instead of a new array. If the buffer is too short, only the beginning of the path is written.
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @param path The buffer to write the path into
+	 * @return the length of the path (which may exceed the length of the buffer)
+	 */
+	public int getShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,int[] path)
+	{
+		return getShortestPath(fromNodeIndex,toNodeIndex,lastMoveMade,_pathCursor()).copyTo(path);
+	}
+	
+	/**
+	 * As getShortestPath(fromNodeIndex,toNodeIndex,lastMoveMade) but the path is not copied: the IntPath
+	 * supplied is set to refer to the pre-computed segments the path consists of (see getShortestPath(int,int,IntPath)).
+	 *
+	 * @param fromNodeIndex The node index from where to start (i.e., current position)
+	 * @param toNodeIndex The target node index
+	 * @param lastMoveMade The last move made
+	 * @param path The path to be set (valid until it is used for another query)
+	 * @return the path supplied
+	 */
+	public IntPath getShortestPath(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,IntPath path)
+	{
+		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
+		{
+			path.clear();
+			return path;
+		}
+
+		return _getPathsCache(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade,path);
+	}
+	
+	/**
+	 * The IntPath of the calling thread used to fill the buffers of the callers.
+	 */
+	private static IntPath _pathCursor()
+	{
+		return pathCursors.get();
 	}
 	
 	/**
@@ -1650,8 +2845,8 @@ public final class Game
 	}
 	
 	/**
-	 * Similar to getShortestPath but returns the distance of the path only. It is slightly
-	 * more efficient.
+	 * Similar to getShortestPath but returns the distance of the path only. The distance is equal to
+	 * the length of the path but is looked up without creating the path (nothing is allocated).
 	 *  
 	 * @param fromNodeIndex The node index from where to start (i.e., current position)
 	 * @param toNodeIndex The target node index
@@ -1663,6 +2858,6 @@ public final class Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return 0;
 
-		return caches[mazeIndex].getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return _getPathsCache(mazeIndex).getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 }
\ No newline at end of file
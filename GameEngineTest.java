@@ -0,0 +1,1118 @@
+package test.java.pacman.tests;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import pacman.ParallelExperiment;
+import pacman.Tournament;
+import pacman.controllers.Controller;
+import pacman.controllers.ControllerScheduler;
+import pacman.controllers.examples.Legacy2TheReckoning;
+import pacman.controllers.examples.NullGhosts;
+import pacman.controllers.examples.RandomGhosts;
+import pacman.controllers.examples.NearestPillPacMan;
+import pacman.controllers.examples.StarterPacMan;
+import pacman.game.BatchGame;
+import pacman.game.Constants;
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+import pacman.game.GamePool;
+import pacman.game.internal.AStar;
+import pacman.game.internal.DistanceTableGenerator;
+import pacman.game.internal.IntPath;
+import pacman.game.util.DangerMap;
+import pacman.game.util.LatencyHistogram;
+import pacman.game.util.TranspositionTable;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks of the game engine itself (no marks associated to these tests).
+ */
+@Order(3)
+class GameEngineTest {
+
+    private static final int STEPS = 500;
+
+    @Test
+    @DisplayName("Game.copy() reproduces the full game state and is independent of the original")
+    void copyIsExactAndIndependent() {
+        Game game = new Game(0);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+
+        for (int i = 0; i < STEPS && !game.gameOver(); i++) {
+            game.advanceGameWithoutReverse(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+
+            Game copy = game.copy();
+            assertEquals(game.getGameState(), copy.getGameState(), "copy differs at tick " + game.getTotalTime());
+        }
+
+        String before = game.getGameState();
+        Game copy = game.copy();
+        copy.advanceGameWithoutReverse(pacMan.getMove(copy, -1), ghosts.getMove(copy, -1));
+
+        assertEquals(before, game.getGameState(), "advancing a copy must not change the original");
+        assertNotEquals(before, copy.getGameState(), "the copy should have advanced");
+    }
+
+    @Test
+    @DisplayName("Games with the same seed, and copies, share the same random future")
+    void randomStreamIsPerGameAndCopied() {
+        Game game = new Game(5);
+        Game twin = new Game(5);
+        StarterPacMan pacMan = new StarterPacMan();
+        RandomGhosts ghosts = new RandomGhosts();
+
+        for (int i = 0; i < STEPS; i++) {
+            MOVE pacManMove = pacMan.getMove(game.copy(), -1);
+            EnumMap<GHOST, MOVE> ghostMoves = ghosts.getMove(game.copy(), -1);
+            game.advanceGame(pacManMove, new EnumMap<>(ghostMoves));
+            twin.advanceGame(pacManMove, new EnumMap<>(ghostMoves));
+        }
+
+        assertEquals(game.getGameState(), twin.getGameState(), "same seed, same moves, same game");
+
+        Game copy = game.copy();
+
+        while (!game.gameOver()) {
+            MOVE pacManMove = pacMan.getMove(game.copy(), -1);
+            EnumMap<GHOST, MOVE> ghostMoves = ghosts.getMove(game.copy(), -1);
+            game.advanceGame(pacManMove, new EnumMap<>(ghostMoves));
+            copy.advanceGame(pacManMove, new EnumMap<>(ghostMoves));
+            assertEquals(game.getGameState(), copy.getGameState(), "copy diverged at tick " + game.getTotalTime());
+        }
+    }
+
+    @Test
+    @DisplayName("Game.copyInto() and GamePool recycle games without changing their behaviour")
+    void copyIntoMatchesCopy() {
+        Game game = new Game(0, 2);
+        Game target = new Game(1, 0);
+        GamePool pool = new GamePool(1);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+
+        for (int i = 0; i < STEPS && !game.gameOver(); i++) {
+            game.advanceGameWithoutReverse(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+
+            game.copyInto(target);
+            assertEquals(game.getGameState(), target.getGameState(), "copyInto differs at tick " + game.getTotalTime());
+
+            Game pooled = pool.acquire(game);
+            assertEquals(game.getGameState(), pooled.getGameState(), "pooled game differs at tick " + game.getTotalTime());
+            pool.release(pooled);
+        }
+
+        assertEquals(1, pool.getMisses(), "only the first request should create a game");
+        assertEquals(game.getTotalTime() - 1, pool.getHits());
+    }
+
+    @Test
+    @DisplayName("Game.undo() restores every previous tick, including deaths and level changes")
+    void undoRestoresPreviousTicks() {
+        assertUndoRestores(new Game(0), new Legacy2TheReckoning());
+        assertUndoRestores(new Game(0, 3), new NullGhosts());
+    }
+
+    private static void assertUndoRestores(Game game, Controller<EnumMap<GHOST, MOVE>> ghosts) {
+        StarterPacMan pacMan = new StarterPacMan();
+        List<String> states = new ArrayList<>();
+        List<ByteBuffer> binaryStates = new ArrayList<>();
+        int levels = 0;
+
+        game.enableUndo();
+
+        while (!game.gameOver() && levels < 2) {
+            states.add(game.getGameState());
+            binaryStates.add(encode(game));
+            int level = game.getCurrentLevel();
+            game.advanceGame(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+            levels += game.getCurrentLevel() - level;
+        }
+
+        assertEquals(states.size(), game.getUndoDepth());
+
+        for (int i = states.size() - 1; i >= 0; i--) {
+            game.undo();
+            assertEquals(states.get(i), game.getGameState(), "undo differs at tick " + i);
+            assertEquals(binaryStates.get(i), encode(game), "undo must also restore the random number generator");
+        }
+
+        assertFalse(game.undo(), "nothing left to undo");
+    }
+
+    private static ByteBuffer encode(Game game) {
+        ByteBuffer buffer = ByteBuffer.allocate(Game.MAX_ENCODED_STATE_SIZE);
+        game.encodeState(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    @DisplayName("Game.advanceToNextDecision() skips corridor ticks and equals advancing tick by tick")
+    void advanceToNextDecisionStopsAtDecisions() {
+        Game game = new Game(11);
+        Game stepped = new Game(11);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+        int decisions = 0;
+
+        while (!game.gameOver()) {
+            MOVE move = pacMan.getMove(game.copy(), -1);
+            int level = game.getCurrentLevel();
+            int ticks = game.advanceToNextDecision(move, ghosts);
+            decisions++;
+
+            assertTrue(ticks >= 1);
+            assertTrue(game.gameOver() || game.wasPacManEaten() || game.wasPowerPillEaten() || game.getNumGhostsEaten() > 0
+                    || game.getCurrentLevel() != level || game.isJunction(game.getPacmanCurrentNodeIndex())
+                    || game.getPossibleMoves(game.getPacmanCurrentNodeIndex(), game.getPacmanLastMoveMade()).length != 1,
+                    "stopped without a decision at tick " + game.getTotalTime());
+
+            for (int i = 0; i < ticks; i++) {
+                stepped.advanceGame(move, ghosts.getMove(stepped.copy(), -1));
+                move = stepped.getPossibleMoves(stepped.getPacmanCurrentNodeIndex(), stepped.getPacmanLastMoveMade())[0];
+            }
+
+            assertEquals(stepped.getGameState(), game.getGameState(), "differs after decision " + decisions);
+        }
+
+        assertTrue(decisions < game.getTotalTime() / 3, "most ticks should be skipped, " + decisions + " decisions");
+    }
+
+    @Test
+    @DisplayName("The active pill index matches the pills on every tick, in copies and after undo")
+    void activePillIndexStaysConsistent() {
+        Game game = new Game(3);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+
+        game.enableUndo();
+
+        while (!game.gameOver()) {
+            game.advanceGame(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+            assertActivePills(game);
+            assertActivePills(game.copy());
+        }
+
+        while (game.undo())
+            assertActivePills(game);
+    }
+
+    private static void assertActivePills(Game game) {
+        int[] pillIndices = game.getPillIndices();
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < pillIndices.length; i++)
+            if (game.isPillStillAvailable(i))
+                expected.add(pillIndices[i]);
+
+        List<Integer> visited = new ArrayList<>();
+        game.forEachActivePill(visited::add);
+        Collections.sort(visited);
+
+        List<Integer> indexed = new ArrayList<>();
+        for (int i = 0; i < game.getNumberOfActivePills(); i++)
+            indexed.add(game.getActivePillNodeIndex(i));
+        Collections.sort(indexed);
+
+        assertEquals(expected, visited, "forEachActivePill at tick " + game.getTotalTime());
+        assertEquals(expected, indexed, "getActivePillNodeIndex at tick " + game.getTotalTime());
+        assertEquals(expected.size(), game.getActivePillsIndices().length);
+
+        int current = game.getPacmanCurrentNodeIndex();
+        int[] pills = game.getActivePillsIndices();
+        int[] powerPills = game.getActivePowerPillsIndices();
+        int[] targets = Arrays.copyOf(pills, pills.length + powerPills.length);
+        System.arraycopy(powerPills, 0, targets, pills.length, powerPills.length);
+
+        assertEquals(game.getClosestNodeIndexFromNodeIndex(current, targets, DM.PATH), game.getClosestActivePillNodeIndex(current, true));
+        assertEquals(game.getClosestNodeIndexFromNodeIndex(current, pills, DM.PATH), game.getClosestActivePillNodeIndex(current, false));
+    }
+
+    @Test
+    @DisplayName("The nearest-pill distance fields agree with the shortest path distances")
+    void pillDistanceFieldsMatchShortestPaths() {
+        Game game = new Game(2);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+        List<Game> snapshots = new ArrayList<>();
+
+        game.enableUndo();
+
+        while (!game.gameOver()) {
+            game.advanceGame(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+
+            if (game.getTotalTime() % 40 == 0) {
+                assertPillDistances(game);
+                snapshots.add(game.copy());
+            }
+        }
+
+        for (Game snapshot : snapshots)
+            assertPillDistances(snapshot);
+
+        while (game.undo())
+            if (game.getTotalTime() % 40 == 20)
+                assertPillDistances(game);
+    }
+
+    private static void assertPillDistances(Game game) {
+        int[] pills = game.getActivePillsIndices();
+        int[] powerPills = game.getActivePowerPillsIndices();
+
+        for (int node = 0; node < game.getNumberOfNodes(); node++) {
+            if (game.getNeighbouringNodes(node).length == 0)
+                continue;
+
+            int nearest = game.getClosestNodeIndexFromNodeIndex(node, pills, DM.PATH);
+            assertEquals(nearest, game.getNearestPillNodeIndex(node), "nearest pill of node " + node + " at tick " + game.getTotalTime());
+            assertEquals(nearest == -1 ? Integer.MAX_VALUE : game.getShortestPathDistance(node, nearest), game.getDistanceToNearestPill(node));
+
+            int nearestPowerPill = game.getClosestNodeIndexFromNodeIndex(node, powerPills, DM.PATH);
+            assertEquals(nearestPowerPill, game.getNearestPowerPillNodeIndex(node), "nearest power pill of node " + node);
+        }
+    }
+
+    @Test
+    @DisplayName("Game.getStateHash() is maintained incrementally and agrees with a fresh computation")
+    void stateHashMatchesRecomputation() {
+        Game game = new Game(0);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+        Set<Long> hashes = new HashSet<>();
+
+        while (!game.gameOver()) {
+            game.advanceGame(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+
+            Game rebuilt = new Game(0);
+            rebuilt.setGameState(game.getGameState());
+            assertEquals(rebuilt.getStateHash(), game.getStateHash(), "hash differs at tick " + game.getTotalTime());
+            assertEquals(game.getStateHash(), game.copy().getStateHash());
+            hashes.add(game.getStateHash());
+        }
+
+        assertTrue(hashes.size() > game.getTotalTime() / 2, "hashes should tell positions apart");
+    }
+
+    @Test
+    @DisplayName("Game.encodeState() and decodeState() round-trip the state in a few bytes")
+    void binaryStateRoundTrips() {
+        Game game = new Game(0, 1);
+        Game decoded = new Game(3, 0);
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning ghosts = new Legacy2TheReckoning();
+        ByteBuffer buffer = ByteBuffer.allocate(Game.MAX_ENCODED_STATE_SIZE);
+
+        while (!game.gameOver()) {
+            game.advanceGame(pacMan.getMove(game.copy(), -1), ghosts.getMove(game.copy(), -1));
+
+            buffer.clear();
+            int size = game.encodeState(buffer);
+            assertEquals(size, buffer.position());
+            assertTrue(size < game.getGameState().length() / 2, "binary state should be compact, was " + size);
+
+            buffer.flip();
+            decoded.decodeState(buffer);
+            assertFalse(buffer.hasRemaining());
+            assertEquals(game.getGameState(), decoded.getGameState(), "decoded state differs at tick " + game.getTotalTime());
+            assertEquals(game.getStateHash(), decoded.getStateHash());
+        }
+
+        assertTrue(decoded.gameOver());
+    }
+
+    @Test
+    @DisplayName("BatchGame advances its lanes exactly like independent games")
+    void batchGameMatchesGame() {
+        int lanes = 4;
+        BatchGame batch = new BatchGame(lanes, 7, 1);
+        Game[] games = new Game[lanes];
+        StarterPacMan pacMan = new StarterPacMan();
+        Legacy2TheReckoning legacy = new Legacy2TheReckoning();
+        NullGhosts nullGhosts = new NullGhosts();
+        int[] pacManMoves = new int[lanes];
+        int[] ghostMoves = new int[lanes * GHOST.values().length];
+
+        for (int lane = 0; lane < lanes; lane++) {
+            games[lane] = new Game(7 + lane, 1);
+            assertEquals(games[lane].getGameState(), batch.getGameState(lane));
+        }
+
+        while (batch.getNumGamesOver() < lanes) {
+            for (int lane = 0; lane < lanes; lane++) {
+                Game game = games[lane];
+
+                if (game.gameOver())
+                    continue;
+
+                MOVE pacManMove = pacMan.getMove(game.copy(), -1);
+                EnumMap<GHOST, MOVE> moves = (lane % 2 == 0 ? legacy : nullGhosts).getMove(game.copy(), -1);
+
+                pacManMoves[lane] = pacManMove.ordinal();
+
+                for (GHOST ghost : GHOST.values())
+                    ghostMoves[lane * GHOST.values().length + ghost.ordinal()] = moves.getOrDefault(ghost, MOVE.NEUTRAL).ordinal();
+
+                game.advanceGame(pacManMove, moves);
+            }
+
+            batch.step(pacManMoves, ghostMoves);
+
+            for (int lane = 0; lane < lanes; lane++) {
+                assertEquals(games[lane].getGameState(), batch.getGameState(lane), "lane " + lane + " differs at tick " + games[lane].getTotalTime());
+                assertEquals(games[lane].gameOver(), batch.gameOver(lane));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("TranspositionTable returns stored entries and rejects other positions")
+    void transpositionTableStoresAndProbes() {
+        TranspositionTable table = new TranspositionTable(1000);
+        assertEquals(1024, table.getCapacity());
+
+        long hash = new Game(0).getStateHash();
+        assertEquals(TranspositionTable.MISS, table.probe(hash));
+
+        table.store(hash, -42, 7, MOVE.UP, TranspositionTable.LOWER_BOUND);
+        long entry = table.probe(hash);
+        assertEquals(-42, TranspositionTable.getValue(entry));
+        assertEquals(7, TranspositionTable.getDepth(entry));
+        assertEquals(MOVE.UP, TranspositionTable.getMove(entry));
+        assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.getBound(entry));
+
+        table.store(hash, 5, 3, MOVE.DOWN, TranspositionTable.EXACT);
+        assertEquals(7, TranspositionTable.getDepth(table.probe(hash)), "shallower results must not replace deeper ones");
+
+        assertEquals(TranspositionTable.MISS, table.probe(hash + table.getCapacity()), "same slot, different position");
+    }
+
+    @Test
+    @DisplayName("DistanceTableGenerator writes the distances the game uses")
+    void binaryDistanceTableMatchesText() throws IOException {
+        File binary = File.createTempFile("distances", ".bin");
+        binary.deleteOnExit();
+
+        Game game = new Game(0, 0);
+        int numNodes = game.getNumberOfNodes();
+        int numEntries = DistanceTableGenerator.convert(new File("data/distances/da"), binary);
+        assertEquals(numNodes * (numNodes + 1) / 2, numEntries);
+        assertEquals(2L * numEntries, binary.length());
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binary)))) {
+            for (int to = 0; to < numNodes; to++) {
+                for (int from = 0; from <= to; from++) {
+                    int distance = in.readChar();
+                    assertEquals(game.getShortestPathDistance(from, to), distance == 0xffff ? -1 : distance);
+                }
+            }
+        }
+
+        File outOfRange = File.createTempFile("distances", "");
+        outOfRange.deleteOnExit();
+        Files.write(outOfRange.toPath(), "0\n-1\n65535\n".getBytes());
+        assertThrows(IOException.class, () -> DistanceTableGenerator.convert(outOfRange, binary), "65535 is not truncated into NO_DISTANCE");
+    }
+
+    @Test
+    @DisplayName("getShortestPathDistance(from, to, lastMove) equals the length of getShortestPath(from, to, lastMove)")
+    void noReverseDistancesMatchPaths() {
+        Random random = new Random(14);
+        MOVE[] moves = MOVE.values();
+
+        for (int maze = 0; maze < 4; maze++) {
+            Game game = new Game(0, maze);
+            int numNodes = game.getNumberOfNodes();
+            int checked = 0;
+
+            for (int i = 0; i < 20000; i++) {
+                int from = random.nextInt(numNodes);
+                int to = random.nextInt(numNodes);
+                MOVE lastMove = moves[random.nextInt(moves.length)];
+                int[] path;
+
+                try {
+                    path = game.getShortestPath(from, to, lastMove);
+                } catch (RuntimeException e) {
+                    continue;        // no path without reversing (e.g., the move is not possible at that node)
+                }
+
+                assertEquals(path.length, game.getShortestPathDistance(from, to, lastMove), from + " -> " + to + " after " + lastMove);
+                checked++;
+            }
+
+            assertTrue(checked > 10000);
+        }
+    }
+
+    @Test
+    @DisplayName("The next moves along shortest paths are those of the nearest (or farthest) neighbour, first in MOVE order on a tie")
+    void nextMovesFollowShortestPaths() {
+        Random random = new Random(15);
+        MOVE[] moves = MOVE.values();
+
+        for (int maze = 0; maze < 4; maze++) {
+            Game game = new Game(0, maze);
+            int numNodes = game.getNumberOfNodes();
+
+            for (int i = 0; i < 20000; i++) {
+                int from = random.nextInt(numNodes);
+                int to = random.nextInt(numNodes);
+                MOVE lastMove = moves[random.nextInt(moves.length)];
+
+                assertEquals(expectedNextMove(game, from, to, MOVE.NEUTRAL, true), game.getNextMoveTowardsTarget(from, to, DM.PATH));
+                assertEquals(expectedNextMove(game, from, to, MOVE.NEUTRAL, false), game.getNextMoveAwayFromTarget(from, to, DM.PATH));
+                assertEquals(expectedNextMove(game, from, to, lastMove, true), game.getApproximateNextMoveTowardsTarget(from, to, lastMove, DM.PATH));
+                assertEquals(expectedNextMove(game, from, to, lastMove, false), game.getApproximateNextMoveAwayFromTarget(from, to, lastMove, DM.PATH));
+            }
+        }
+    }
+
+    private static MOVE expectedNextMove(Game game, int from, int to, MOVE lastMove, boolean towards) {
+        MOVE best = null;
+        int bestDistance = towards ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+
+        for (MOVE move : MOVE.values()) {
+            int neighbour = game.getNeighbour(from, move);
+
+            if (neighbour == -1 || (lastMove != MOVE.NEUTRAL && move == lastMove.opposite())) {
+                continue;
+            }
+
+            int distance = game.getShortestPathDistance(neighbour, to);
+
+            if (towards ? distance < bestDistance : distance > bestDistance) {
+                bestDistance = distance;
+                best = move;
+            }
+        }
+
+        return best;
+    }
+
+    @Test
+    @DisplayName("Paths written into buffers or read through an IntPath equal the paths returned as arrays")
+    void pathBuffersMatchPathArrays() {
+        Random random = new Random(16);
+        MOVE[] moves = MOVE.values();
+        IntPath cursor = new IntPath();
+        int[] buffer = new int[256];
+        int[] prefix = new int[3];
+
+        for (int maze = 0; maze < 4; maze++) {
+            Game game = new Game(0, maze);
+            int numNodes = game.getNumberOfNodes();
+
+            for (int i = 0; i < 5000; i++) {
+                int from = random.nextInt(numNodes);
+                int to = random.nextInt(numNodes);
+                MOVE lastMove = moves[random.nextInt(moves.length)];
+
+                int[] path;
+
+                try {
+                    path = game.getShortestPath(from, to);
+                } catch (RuntimeException e) {
+                    continue;        // the lair cannot be reached
+                }
+
+                assertEquals(path.length, game.getShortestPath(from, to, buffer));
+                assertArrayEquals(path, Arrays.copyOf(buffer, path.length));
+                assertArrayEquals(path, game.getShortestPath(from, to, cursor).toArray());
+
+                int[] ghostPath;
+
+                try {
+                    ghostPath = game.getShortestPath(from, to, lastMove);
+                } catch (RuntimeException e) {
+                    continue;
+                }
+
+                game.getShortestPath(from, to, lastMove, cursor);
+                assertEquals(ghostPath.length, cursor.length());
+
+                for (int j = 0; j < ghostPath.length; j++) {
+                    assertEquals(ghostPath[j], cursor.get(j));
+                }
+
+                assertEquals(ghostPath.length, game.getShortestPath(from, to, lastMove, prefix));
+                assertArrayEquals(Arrays.copyOf(ghostPath, Math.min(ghostPath.length, prefix.length)),
+                        Arrays.copyOf(prefix, Math.min(ghostPath.length, prefix.length)), "beginning of a long path");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("AStar can be used by several threads at once and fills buffers like it returns arrays")
+    void aStarIsReentrant() throws Exception {
+        Game game = new Game(0, 1);
+        AStar astar = game.getCurrentMaze().astar;
+        int numNodes = game.getNumberOfNodes();
+        MOVE[] moves = MOVE.values();
+        int[][] queries = new int[2000][];
+        Random random = new Random(18);
+
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new int[]{random.nextInt(numNodes), random.nextInt(numNodes), random.nextInt(moves.length)};
+        }
+
+        List<int[]> expected = new ArrayList<>();
+        int[] buffer = new int[numNodes];
+
+        for (int[] q : queries) {
+            int[] path = astar.computePathsAStar(q[0], q[1], moves[q[2]], game);
+            expected.add(path);
+            assertEquals(path.length, astar.computePathsAStar(q[0], q[1], moves[q[2]], game, buffer));
+            assertArrayEquals(path, Arrays.copyOf(buffer, path.length));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for (int t = 0; t < 4; t++) {
+                int offset = t;
+                results.add(pool.submit(() -> {
+                    for (int i = 0; i < queries.length; i++) {
+                        int[] q = queries[(i + offset * 500) % queries.length];
+                        int[] path = astar.computePathsAStar(q[0], q[1], moves[q[2]], game);
+
+                        if (!Arrays.equals(expected.get((i + offset * 500) % queries.length), path)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Distance fields equal the nearest source's shortest path distances, or bound them when reversing is not allowed")
+    void distanceFieldsMatchShortestPathDistances() {
+        Random random = new Random(19);
+        Game game = new Game(0, 1);
+        int numNodes = game.getNumberOfNodes();
+        MOVE[] moves = MOVE.values();
+        int[] field = new int[numNodes];
+        int[] single = new int[numNodes];
+        int[] minimum = new int[numNodes];
+
+        for (int trial = 0; trial < 50; trial++) {
+            int[] sources = new int[1 + random.nextInt(4)];
+            MOVE[] lastMoves = new MOVE[sources.length];
+
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = random.nextInt(numNodes);
+                lastMoves[i] = moves[random.nextInt(moves.length)];
+            }
+
+            game.computeDistanceField(sources, false, field);
+
+            for (int node = 0; node < numNodes; node++) {
+                int expected = Integer.MAX_VALUE;
+
+                for (int source : sources) {
+                    int distance = game.getShortestPathDistance(source, node);
+
+                    if (distance >= 0) {
+                        expected = Math.min(expected, distance);
+                    }
+                }
+                assertEquals(expected, field[node], "unrestricted distance to " + node);
+            }
+
+            Arrays.fill(minimum, Integer.MAX_VALUE);
+
+            for (int i = 0; i < sources.length; i++) {
+                game.computeDistanceField(new int[]{sources[i]}, new MOVE[]{lastMoves[i]}, single);
+
+                for (int node = 0; node < numNodes; node++) {
+                    minimum[node] = Math.min(minimum[node], single[node]);
+                    int distance = game.getShortestPathDistance(sources[i], node);
+
+                    if (distance >= 0) {
+                        assertTrue(single[node] >= distance, "a walk without reversals is never shorter");
+                    }
+
+                    int cached;
+
+                    try {
+                        cached = game.getShortestPathDistance(sources[i], node, lastMoves[i]);
+                    } catch (RuntimeException e) {
+                        continue;        // no cached path without reversing (e.g., the move is not possible at that node)
+                    }
+
+                    assertTrue(single[node] <= cached, "the exact distance without reversals never exceeds that of the cached paths");
+                }
+            }
+
+            game.computeDistanceField(sources, lastMoves, field);
+            assertArrayEquals(minimum, field, "several sources give the minimum of their fields");
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> game.computeDistanceField(new int[]{0}, false, new int[numNodes - 1]));
+    }
+
+    @Test
+    @DisplayName("DangerMap is shared by copies of a game and paths it calls safe never get Ms Pac-Man eaten")
+    void dangerMapPathsAreSafe() {
+        Random random = new Random(20);
+        int safePaths = 0, edibleGhosts = 0;
+        int[][][] successors = new int[4][][];
+
+        for (int trial = 0; trial < 2000; trial++) {
+            Game game = new Game(trial, trial % 4);
+
+            for (int t = random.nextInt(400); t > 0 && !game.gameOver(); t--) {
+                int pacMan = game.getPacmanCurrentNodeIndex();
+                int[] powerPills = game.getActivePowerPillsIndices();
+                MOVE[] pacManMoves = game.getPossibleMoves(pacMan);
+                MOVE pacManMove = pacManMoves[random.nextInt(pacManMoves.length)];
+
+                if (trial % 2 == 1 && powerPills.length > 0) {        // eats power pills, so that there are edible ghosts
+                    pacManMove = game.getNextMoveTowardsTarget(pacMan, game.getClosestNodeIndexFromNodeIndex(pacMan, powerPills, DM.PATH), DM.PATH);
+                }
+                game.advanceGameWithoutReverse(pacManMove, randomGhostMoves(game, random));
+            }
+
+            if (game.gameOver()) {
+                continue;
+            }
+
+            DangerMap map = DangerMap.get(game);
+            assertSame(map, DangerMap.get(game.copy()), "copies of a game share the map");
+
+            int eatenLairTime = (int) (Constants.COMMON_LAIR_TIME * Math.pow(Constants.LAIR_REDUCTION, game.getCurrentLevel() % Constants.LEVEL_RESET_REDUCTION));
+            int[] respawned = null;
+
+            if (successors[game.getMazeIndex()] == null) {
+                successors[game.getMazeIndex()] = noReverseSuccessors(game);
+            }
+
+            for (GHOST ghost : trial % 10 < 2 ? GHOST.values() : new GHOST[0]) {     // a fifth of the trials: the simulation is slow
+                int lairTime = game.getGhostLairTime(ghost);
+                int edibleTime = game.getGhostEdibleTime(ghost);
+                int[] expected;
+
+                if (lairTime > 0) {
+                    expected = simulateArrivalTimes(successors[game.getMazeIndex()], game.getCurrentMaze().initialGhostNodeIndex, MOVE.NEUTRAL, lairTime, 0);
+                } else {
+                    expected = simulateArrivalTimes(successors[game.getMazeIndex()], game.getGhostCurrentNodeIndex(ghost), game.getGhostLastMoveMade(ghost), 0, edibleTime);
+
+                    if (edibleTime > 0) {
+                        edibleGhosts++;
+
+                        if (respawned == null) {        // eaten in the next tick, it comes back from the lair
+                            respawned = simulateArrivalTimes(successors[game.getMazeIndex()], game.getCurrentMaze().initialGhostNodeIndex, MOVE.NEUTRAL, eatenLairTime, 0);
+                        }
+                        for (int node = 0; node < expected.length; node++) {
+                            expected[node] = Math.min(expected[node], respawned[node]);
+                        }
+                    }
+                }
+
+                // exact, except that an edible ghost near the node counts as arriving as soon as it is no longer edible,
+                // although it cannot wait there
+                for (int node = 0; node < expected.length; node++) {
+                    int arrival = map.getArrivalTime(ghost, node);
+                    String where = ghost + " (edible " + edibleTime + ", lair " + lairTime + ") at " + node;
+
+                    assertTrue(arrival <= expected[node], where + ": " + arrival + " > " + expected[node]);
+
+                    if (arrival > edibleTime + 1) {
+                        assertEquals(expected[node], arrival, where);
+                    }
+                }
+            }
+
+            int[] junctions = game.getJunctionIndices();
+            int[] path = game.getShortestPath(game.getPacmanCurrentNodeIndex(), junctions[random.nextInt(junctions.length)]);
+
+            if (!map.isPathSafe(path)) {
+                continue;
+            }
+
+            safePaths++;
+            int level = game.getCurrentLevel();
+
+            for (int i = 0; i < path.length && game.getCurrentLevel() == level; i++) {
+                game.advanceGameWithoutReverse(game.getMoveToMakeToReachDirectNeighbour(game.getPacmanCurrentNodeIndex(), path[i]),
+                        randomGhostMoves(game, random));
+                assertFalse(game.wasPacManEaten(), "eaten " + (i + 1) + " ticks along a safe path");
+            }
+        }
+
+        assertTrue(safePaths > 20, "only " + safePaths + " safe paths");
+        assertTrue(edibleGhosts > 20, "only " + edibleGhosts + " edible ghosts checked");
+    }
+
+    /**
+     * The earliest tick at which a ghost that walks without reversing may be at each node while it is not edible (or
+     * DangerMap.NEVER), simulated tick by tick with the engine's rules: the ghost starts moving after the tick given, an
+     * edible ghost stays put in the ticks in which its edible time is a multiple of GHOST_SPEED_REDUCTION, and the edible
+     * time decreases after Ms Pac-Man and the ghosts have met.
+     */
+    private static int[] simulateArrivalTimes(int[][] successors, int node, MOVE lastMove, int startTick, int edibleTime) {
+        int[] states = new int[successors.length], next = new int[successors.length];
+        states[0] = node * 5 + lastMove.ordinal();
+        int size = 1;
+        boolean[] inSet = new boolean[successors.length];
+
+        // while the ghost is edible, it may be in any of the states reached in exactly that many ticks; in the tick its
+        // edible time reaches 0, it moves again and is dangerous
+        for (int tick = startTick + 1; tick <= startTick + edibleTime + 1 && edibleTime > 0; tick++) {
+            int time = edibleTime - (tick - startTick - 1);
+
+            if (time == 0 || time % Constants.GHOST_SPEED_REDUCTION != 0) {
+                int nextSize = 0;
+
+                for (int i = 0; i < size; i++) {
+                    for (int successor : successors[states[i]]) {
+                        if (!inSet[successor]) {
+                            inSet[successor] = true;
+                            next[nextSize++] = successor;
+                        }
+                    }
+                }
+                for (int i = 0; i < nextSize; i++) {
+                    inSet[next[i]] = false;
+                }
+                int[] swap = states;
+                states = next;
+                next = swap;
+                size = nextSize;
+            }
+        }
+
+        // from then on, it moves in every tick: the earliest time of each state is found breadth first
+        int[] arrivals = new int[successors.length / 5];
+        Arrays.fill(arrivals, DangerMap.NEVER);
+        int[] times = new int[successors.length];
+        Arrays.fill(times, -1);
+        int[] queue = new int[successors.length];
+        int head = 0, tail = 0;
+
+        for (int i = 0; i < size; i++) {
+            int state = states[i];
+            times[state] = startTick + (edibleTime > 0 ? edibleTime + 1 : 0);
+            queue[tail++] = state;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            arrivals[state / 5] = Math.min(arrivals[state / 5], times[state]);
+
+            for (int successor : successors[state]) {
+                if (times[successor] < 0) {
+                    times[successor] = times[state] + 1;
+                    queue[tail++] = successor;
+                }
+            }
+        }
+        return arrivals;
+    }
+
+    /**
+     * The states (node * 5 + last move) a ghost may be in after one move from each state.
+     */
+    private static int[][] noReverseSuccessors(Game game) {
+        MOVE[] moves = MOVE.values();
+        int[][] successors = new int[game.getNumberOfNodes() * 5][];
+
+        for (int state = 0; state < successors.length; state++) {
+            MOVE[] possible = game.getPossibleMoves(state / 5, moves[state % 5]);
+
+            if (possible == null) {     // the node cannot be entered with that move
+                possible = new MOVE[0];
+            }
+            successors[state] = new int[possible.length];
+
+            for (int i = 0; i < possible.length; i++) {
+                successors[state][i] = game.getNeighbour(state / 5, possible[i]) * 5 + possible[i].ordinal();
+            }
+        }
+        return successors;
+    }
+
+    private static EnumMap<GHOST, MOVE> randomGhostMoves(Game game, Random random) {
+        EnumMap<GHOST, MOVE> moves = new EnumMap<>(GHOST.class);
+
+        for (GHOST ghost : GHOST.values()) {
+            int node = game.getGhostCurrentNodeIndex(ghost);
+            MOVE[] possible = game.getPossibleMoves(node, game.getGhostLastMoveMade(ghost));
+
+            if (possible.length > 0 && random.nextBoolean()) {
+                moves.put(ghost, game.getNextMoveTowardsTarget(node, game.getPacmanCurrentNodeIndex(), game.getGhostLastMoveMade(ghost), DM.PATH));
+            } else if (possible.length > 0) {
+                moves.put(ghost, possible[random.nextInt(possible.length)]);
+            }
+        }
+        return moves;
+    }
+
+    @Test
+    @DisplayName("ControllerScheduler computes moves on its workers, wakes the updating thread and counts the ticks a slow controller misses")
+    void controllerSchedulerCountsMissedTicks() throws InterruptedException {
+        ControllerScheduler scheduler = new ControllerScheduler(2);
+        Game game = new Game(0);
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+
+        Controller<MOVE> fast = new Controller<MOVE>() {
+            public MOVE getMove(Game game, long timeDue) {
+                threads.add(Thread.currentThread());
+                return MOVE.LEFT;
+            }
+        };
+        Semaphore started = new Semaphore(0), gate = new Semaphore(0);
+        Controller<MOVE> slow = new Controller<MOVE>() {
+            public MOVE getMove(Game game, long timeDue) {
+                started.release();
+                gate.acquireUninterruptibly();      // takes as long as the test wants
+                return MOVE.RIGHT;
+            }
+        };
+        fast.setScheduler(scheduler);
+        slow.setScheduler(scheduler);
+
+        try {
+            long start = System.nanoTime();
+
+            for (int tick = 0; tick < 50; tick++) {
+                fast.update(game.copy(), System.currentTimeMillis() + 60_000);
+
+                while (!fast.hasComputed()) {
+                    LockSupport.parkNanos(1_000_000_000L);     // woken up by the controller as soon as the move is ready
+                }
+                assertEquals(MOVE.LEFT, fast.getMove());
+            }
+            assertTrue(System.nanoTime() - start < 10_000_000_000L, "the waiting thread was not unparked");
+            fast.terminate();
+            assertEquals(0, fast.getMissedTicks());
+            assertTrue(threads.size() <= 2, threads.size() + " threads computed the moves");
+
+            slow.update(game.copy(), System.currentTimeMillis() + 60_000);
+            started.acquire();
+            assertFalse(slow.hasComputed());
+            assertNull(slow.getMove(), "no move yet: the game proceeds with the last move");
+
+            slow.update(game.copy(), System.currentTimeMillis() + 60_000);     // skipped: the first move is still being computed
+            gate.release();
+            awaitComputations(slow, 1);
+            assertFalse(slow.hasComputed(), "a move computed for an earlier update does not count");
+            assertEquals(MOVE.RIGHT, slow.getMove());
+
+            gate.release();
+            slow.update(game.copy(), System.currentTimeMillis() + 60_000);
+            awaitComputations(slow, 2);
+            assertTrue(slow.hasComputed());
+
+            gate.release();
+            slow.update(game.copy(), System.currentTimeMillis() - 1);         // due already: computed, but late
+            awaitComputations(slow, 3);
+            assertFalse(slow.hasComputed(), "a late move does not count");
+
+            slow.terminate();
+            assertEquals(3, slow.getMissedTicks());
+            slow.resetMissedTicks();
+            assertEquals(0, slow.getMissedTicks(), "the Executor reports the ticks missed per game");
+
+            AtomicInteger calls = new AtomicInteger();
+            Controller<MOVE> failing = new Controller<MOVE>() {
+                public MOVE getMove(Game game, long timeDue) {
+                    if (calls.incrementAndGet() == 1) {
+                        throw new AssertionError("an Error rather than an exception");
+                    }
+                    return MOVE.UP;
+                }
+            };
+            failing.setScheduler(scheduler);
+            failing.update(game.copy(), System.currentTimeMillis() + 60_000);
+            awaitComputations(failing, 1);
+            assertFalse(failing.hasComputed());
+
+            failing.update(game.copy(), System.currentTimeMillis() + 60_000);     // not skipped: the failed computation is over
+            awaitComputations(failing, 2);
+            assertTrue(failing.hasComputed(), "the controller is stuck after getMove() threw an Error");
+            assertEquals(MOVE.UP, failing.getMove());
+            failing.terminate();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Waits until the scheduler has finished the number of computations of the controller given: the latency of a
+     * computation is recorded when the controller is ready for the next update, under the lock of the controller.
+     */
+    private static void awaitComputations(Controller<?> controller, long computations) throws InterruptedException {
+        long deadline = System.nanoTime() + 60_000_000_000L;
+
+        while (true) {
+            synchronized (controller) {
+                if (controller.getLatencies().getCount() >= computations) {
+                    return;
+                }
+            }
+            assertTrue(System.nanoTime() < deadline, "computation " + computations + " did not finish");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    @DisplayName("ParallelExperiment gives the same scores whatever the number of threads, in the order of the seeds")
+    void parallelExperimentIsDeterministic() {
+        long[] seeds = ParallelExperiment.deriveSeeds(0, 6);
+        ParallelExperiment.Result serial = new ParallelExperiment(StarterPacMan::new, Legacy2TheReckoning::new, 1).run(seeds);
+        ParallelExperiment.Result parallel = new ParallelExperiment(StarterPacMan::new, Legacy2TheReckoning::new, 4).run(seeds);
+
+        assertArrayEquals(serial.getScores(), parallel.getScores());
+        assertEquals(ParallelExperiment.playGame(new StarterPacMan(), new Legacy2TheReckoning(), seeds[3]), parallel.getScores()[3]);
+        assertEquals(new Random(0).nextLong(), seeds[0], "the seeds of Executor.runExperiment()");
+
+        int[] scores = parallel.getScores();
+        Arrays.sort(scores);
+        assertEquals(scores[2], parallel.getPercentile(50));
+        assertEquals(scores[5], parallel.getPercentile(100));
+        assertEquals(scores[0], parallel.getPercentile(0));
+        assertEquals(Arrays.stream(scores).average().getAsDouble(), parallel.getMean(), 1e-9);
+        assertEquals(parallel.getStandardDeviation() / Math.sqrt(6), parallel.getStandardError(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Tournament resumes from its checkpoint and rates the entrants from the scores only")
+    void tournamentResumesFromCheckpoint() throws IOException {
+        File checkpoint = File.createTempFile("tournament", ".csv");
+        checkpoint.delete();
+        AtomicInteger played = new AtomicInteger();
+
+        try {
+            Tournament tournament = new Tournament(1, 4)
+                    .addPacMan("StarterPacMan", () -> { played.incrementAndGet(); return new StarterPacMan(); })
+                    .addPacMan("NearestPillPacMan", () -> { played.incrementAndGet(); return new NearestPillPacMan(); })
+                    .addGhosts("Legacy2TheReckoning", Legacy2TheReckoning::new);
+            List<Tournament.GameResult> results = tournament.run(checkpoint);
+
+            assertEquals(8, results.size(), "2 x 1 pairings in 4 mazes with 1 seed");
+            assertEquals(8, played.get());
+
+            List<String> lines = Files.readAllLines(checkpoint.toPath());
+            assertEquals(9, lines.size());
+            Files.write(checkpoint.toPath(), (String.join("\n", lines.subList(0, 6)) + "\n" + lines.get(6).substring(0, 10)).getBytes());
+
+            played.set(0);
+            List<Tournament.GameResult> resumed = tournament.run(checkpoint);
+            assertEquals(results.toString(), resumed.toString(), "the same games with the same scores");
+            assertEquals(3, played.get(), "the games missing from the checkpoint or cut off are replayed");
+            assertEquals(8, Tournament.readResults(checkpoint).size());
+
+            lines = Files.readAllLines(checkpoint.toPath());
+            String last = lines.get(8);
+            assertTrue(last.substring(last.lastIndexOf(',') + 1).length() > 1, last);
+            Files.write(checkpoint.toPath(), (String.join("\n", lines.subList(0, 8)) + "\n" + last.substring(0, last.length() - 1)).getBytes());
+            assertEquals(7, Tournament.readResults(checkpoint).size(), "a line cut off inside the score is ignored");
+
+            played.set(0);
+            resumed = tournament.run(checkpoint);
+            assertEquals(results.toString(), resumed.toString(), "the score cut off is not kept");
+            assertEquals(1, played.get());
+            assertEquals(9, Files.readAllLines(checkpoint.toPath()).size(), "the cut off line is replaced");
+
+            played.set(0);
+            tournament.run(checkpoint);
+            assertEquals(0, played.get(), "nothing left to play");
+
+            List<Tournament.GameResult> shuffled = new ArrayList<>(results);
+            Collections.shuffle(shuffled, new Random(24));
+            assertEquals(Tournament.ratePacMen(results), Tournament.ratePacMen(shuffled));
+            assertEquals(1, Tournament.rateGhosts(results).size());
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    @Test
+    @DisplayName("LatencyHistogram reports percentiles within its bucket precision and controllers record their moves")
+    void latencyHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(25);
+        long[] latencies = new long[10000];
+
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (long) Math.exp(random.nextDouble() * 20);     // 1ns to about 0.5s
+            histogram.record(latencies[i]);
+        }
+        Arrays.sort(latencies);
+
+        assertEquals(latencies.length, histogram.getCount());
+        assertEquals(latencies[latencies.length - 1], histogram.getMax());
+
+        for (double percent : new double[]{1, 50, 95, 99, 99.9}) {
+            long exact = latencies[(int) Math.ceil(percent / 100 * latencies.length) - 1];
+            long reported = histogram.getPercentile(percent);
+            assertTrue(reported >= exact && reported <= exact + exact / 16 + 1, percent + "%: " + reported + " for " + exact);
+        }
+
+        long budget = 40_000_000L;
+        long above = Arrays.stream(latencies).filter(l -> l > budget).count();
+        assertTrue(histogram.getCountAbove(budget) <= above && histogram.getCountAbove(budget) >= above - Arrays.stream(latencies)
+                .filter(l -> l > budget && l <= budget + budget / 16).count());
+
+        LatencyHistogram total = new LatencyHistogram();
+        total.add(histogram);
+        total.add(histogram);
+        assertEquals(2 * latencies.length, total.getCount());
+        assertEquals(histogram.getPercentile(50), total.getPercentile(50));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+
+        Controller<MOVE> pacMan = new StarterPacMan();
+        Game game = new Game(0);
+
+        for (int i = 0; i < 10; i++) {
+            pacMan.getMoveTimed(game.copy(), -1);
+        }
+        assertEquals(10, pacMan.getLatencies().getCount());
+    }
+}
@@ -0,0 +1,132 @@
+package pacman.game;
+
+/**
+ * A pool of recycled games for forward searches. Instead of calling Game.copy() for every
+ * simulated move, a controller acquires a game from the pool (which receives the state of the
+ * game supplied via Game.copyInto()) and releases it once it is no longer needed. The pool holds
+ * on to at most 'capacity' released games; if it runs dry, a fresh copy is created instead.
+ *
+ * A pool is not thread-safe: each thread should use its own pool. The simplest way to do so is
+ * to use the pool returned by GamePool.local(), which is created once per thread. The pool keeps
+ * track of how often a request could be served from the pool (hit) and how often a new game had
+ * to be created (miss).
+ */
+public final class GamePool
+{
+	public static final int DEFAULT_CAPACITY=64;
+
+	private static final ThreadLocal<GamePool> LOCAL=new ThreadLocal<GamePool>()
+	{
+		protected GamePool initialValue()
+		{
+			return new GamePool(DEFAULT_CAPACITY);
+		}
+	};
+
+	private final Game[] free;
+	private int size;
+	private long hits,misses;
+
+	/**
+	 * Instantiates a new pool.
+	 *
+	 * @param capacity The maximum number of released games the pool holds on to
+	 */
+	public GamePool(int capacity)
+	{
+		free=new Game[capacity];
+	}
+
+	/**
+	 * Returns the pool of the calling thread.
+	 *
+	 * @return the pool of the current thread
+	 */
+	public static GamePool local()
+	{
+		return LOCAL.get();
+	}
+
+	/**
+	 * Returns a game that is an exact copy of the game supplied. The game is taken from the pool
+	 * if possible and should be handed back using release() once it is no longer needed.
+	 *
+	 * @param source The game to be copied
+	 * @return a copy of the source game
+	 */
+	public Game acquire(Game source)
+	{
+		if(size==0)
+		{
+			misses++;
+			return source.copy();
+		}
+
+		hits++;
+
+		Game game=free[--size];
+		free[size]=null;
+		source.copyInto(game);
+
+		return game;
+	}
+
+	/**
+	 * Hands a game back to the pool. The game must not be used by the caller afterwards. If the
+	 * pool is full, the game is simply discarded.
+	 *
+	 * @param game The game to be released
+	 */
+	public void release(Game game)
+	{
+		if(size<free.length)
+			free[size++]=game;
+	}
+
+	/**
+	 * Returns the number of requests served by a recycled game.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that required a new game to be created.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of games currently held by the pool.
+	 *
+	 * @return the number of games available
+	 */
+	public int getAvailable()
+	{
+		return size;
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public void resetStatistics()
+	{
+		hits=0;
+		misses=0;
+	}
+
+	public String toString()
+	{
+		long requests=hits+misses;
+
+		return "GamePool[available="+size+"/"+free.length+", hits="+hits+", misses="+misses
+				+", hit rate="+(requests==0 ? 0 : (100*hits)/requests)+"%]";
+	}
+}
@@ -4,6 +4,7 @@ import pacman.controllers.examples.NullGhosts;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import pacman.game.GamePool;
 
 import java.util.*;
 
@@ -23,11 +24,7 @@ public class GameState {
     public static GameState fromGame(Game game) {
         int pacNode = game.getPacmanCurrentNodeIndex();
 
-        int[] pills = game.getActivePillsIndices();
-        int closestPillDist = Integer.MAX_VALUE;
-        for (int pill : pills) {
-            closestPillDist = Math.min(closestPillDist, game.getShortestPathDistance(pacNode, pill));
-        }
+        int closestPillDist = game.getDistanceToNearestPill(pacNode);  // O(1) lookup in the game's pill distance field
 
         int closestGhostDist = Integer.MAX_VALUE;
         boolean edible = false;
@@ -48,10 +45,12 @@ public class GameState {
     }
 
     public List<Transition> getTransitions(Game game, MOVE action) {
-        Game sim = game.copy();
+        GamePool pool = GamePool.local();  // Recycle simulation games instead of copying per call
+        Game sim = pool.acquire(game);
         sim.advanceGame(action, new NullGhosts().getMove(sim, -1));
         GameState nextState = GameState.fromGame(sim);
         double reward = sim.getScore() - game.getScore();  // Delta score as reward
+        pool.release(sim);
         return Collections.singletonList(new Transition(nextState, 1.0, reward));
     }
 
@@ -0,0 +1,118 @@
+package pacman.game.internal;
+
+import java.util.Arrays;
+
+/*
+ * A view of a path (a sequence of node indices) that is made up of segments of the paths pre-computed by PathsCache:
+ * the way to the nearest junction, the way between two junctions and the way from a junction to the target. The
+ * segments are not copied, so obtaining a path this way allocates nothing; nodes are read with get(i) or copied into
+ * a buffer of the caller with copyTo(). An IntPath can be reused for any number of queries (each query replaces the
+ * previous path) but is only valid until the next query, and must not be shared between threads.
+ */
+public final class IntPath
+{
+	private static final int MAX_SEGMENTS=3;
+
+	private final int[][] segments=new int[MAX_SEGMENTS][];
+	private final int[] offsets=new int[MAX_SEGMENTS],lengths=new int[MAX_SEGMENTS];
+	private int numSegments,length;
+
+	/**
+	 * The number of nodes on the path.
+	 */
+	public int length()
+	{
+		return length;
+	}
+
+	/**
+	 * Whether the path is empty (i.e., the start and the target are the same node).
+	 */
+	public boolean isEmpty()
+	{
+		return length==0;
+	}
+
+	/**
+	 * Returns the i-th node of the path; the first node is the one next to the start, the last one is the target.
+	 *
+	 * @param i The position along the path (0 to length()-1)
+	 * @return the node index
+	 */
+	public int get(int i)
+	{
+		if(i<0 || i>=length)
+			throw new IndexOutOfBoundsException("Index: "+i+", length: "+length);
+
+		for(int s=0;;s++)
+		{
+			if(i<lengths[s])
+				return segments[s][offsets[s]+i];
+
+			i-=lengths[s];
+		}
+	}
+
+	/**
+	 * Copies the path into the buffer given. If the buffer is too short, only the first buffer.length nodes are copied,
+	 * which is enough to look at the beginning of a long path.
+	 *
+	 * @param buffer The buffer to fill
+	 * @return the length of the whole path (which may exceed buffer.length)
+	 */
+	public int copyTo(int[] buffer)
+	{
+		int index=0;
+
+		for(int s=0;s<numSegments && index<buffer.length;s++)
+		{
+			int n=Math.min(lengths[s],buffer.length-index);
+			System.arraycopy(segments[s],offsets[s],buffer,index,n);
+			index+=n;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the path as a new array.
+	 */
+	public int[] toArray()
+	{
+		int[] path=new int[length];
+		copyTo(path);
+
+		return path;
+	}
+
+	public String toString()
+	{
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Empties the path.
+	 */
+	public void clear()
+	{
+		for(int s=0;s<numSegments;s++)
+			segments[s]=null;
+
+		numSegments=0;
+		length=0;
+	}
+
+	/**
+	 * Appends 'n' nodes of the array given, starting at 'offset' (the array must not be modified as long as the path is used).
+	 */
+	void add(int[] nodes,int offset,int n)
+	{
+		if(n==0)
+			return;
+
+		segments[numSegments]=nodes;
+		offsets[numSegments]=offset;
+		lengths[numSegments++]=n;
+		length+=n;
+	}
+}
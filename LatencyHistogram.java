@@ -0,0 +1,170 @@
+package pacman.game.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds with fixed log-linear buckets: every power of two is divided into 16 equal
+ * buckets, so a percentile is reported with an error of at most 1/16 (6.25%) whatever the range of the latencies.
+ * Recording a latency only increments a counter (nothing is allocated), so it is cheap enough to time every move of a
+ * controller.
+ *
+ * A histogram is not thread-safe: it should be written by one thread at a time and read once the writer is done (or
+ * under the same lock).
+ */
+public final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS=4;
+	private static final int SUB_BUCKETS=1<<SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS=(64-SUB_BUCKET_BITS)*SUB_BUCKETS;
+
+	private final long[] counts=new long[NUM_BUCKETS];
+	private long count,sum,max;
+
+	/**
+	 * Records a latency; negative values (e.g., from a clock adjustment) count as 0.
+	 *
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if(nanos<0)
+			nanos=0;
+
+		counts[_bucket(nanos)]++;
+		count++;
+		sum+=nanos;
+
+		if(nanos>max)
+			max=nanos;
+	}
+
+	/**
+	 * Values below 16 have a bucket each; from then on, each power of two 2^e is split into 16 buckets of width 2^(e-4).
+	 */
+	private static int _bucket(long value)
+	{
+		if(value<SUB_BUCKETS)
+			return (int)value;
+
+		int exponent=63-Long.numberOfLeadingZeros(value);
+		int sub=(int)(value>>>(exponent-SUB_BUCKET_BITS))&(SUB_BUCKETS-1);
+
+		return (exponent-SUB_BUCKET_BITS+1)*SUB_BUCKETS+sub;
+	}
+
+	/**
+	 * The largest value that falls into the bucket.
+	 */
+	private static long _upperBound(int bucket)
+	{
+		if(bucket<SUB_BUCKETS)
+			return bucket;
+
+		int exponent=bucket/SUB_BUCKETS+SUB_BUCKET_BITS-1;
+		int sub=bucket%SUB_BUCKETS;
+		long width=1L<<(exponent-SUB_BUCKET_BITS);
+
+		return (1L<<exponent)+(sub+1)*width-1;
+	}
+
+	/**
+	 * Forgets all latencies recorded.
+	 */
+	public void reset()
+	{
+		Arrays.fill(counts,0);
+		count=sum=max=0;
+	}
+
+	/**
+	 * Adds the latencies recorded by another histogram to this one.
+	 */
+	public void add(LatencyHistogram other)
+	{
+		for(int i=0;i<NUM_BUCKETS;i++)
+			counts[i]+=other.counts[i];
+
+		count+=other.count;
+		sum+=other.sum;
+		max=Math.max(max,other.max);
+	}
+
+	/**
+	 * The number of latencies recorded.
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * The largest latency recorded (exact), or 0 if there is none.
+	 */
+	public long getMax()
+	{
+		return max;
+	}
+
+	/**
+	 * The mean of the latencies recorded (exact), or 0 if there is none.
+	 */
+	public double getMean()
+	{
+		return count==0 ? 0 : sum/(double)count;
+	}
+
+	/**
+	 * The latency below which the percentage of latencies given lies, rounded up to the end of its bucket (but not
+	 * beyond the maximum), or 0 if nothing has been recorded.
+	 *
+	 * @param percent The percentage (0-100)
+	 * @return the percentile in nanoseconds
+	 */
+	public long getPercentile(double percent)
+	{
+		if(percent<0 || percent>100)
+			throw new IllegalArgumentException("Not a percentage: "+percent);
+
+		if(count==0)
+			return 0;
+
+		long rank=Math.max(1,(long)Math.ceil(percent/100*count));
+		long seen=0;
+
+		for(int i=0;i<NUM_BUCKETS;i++)
+		{
+			seen+=counts[i];
+
+			if(seen>=rank)
+				return Math.min(_upperBound(i),max);
+		}
+
+		return max;
+	}
+
+	/**
+	 * The number of latencies recorded that exceed the value given (counted by bucket, so latencies within 6.25%
+	 * above the value may be missed).
+	 *
+	 * @param nanos The value in nanoseconds
+	 * @return the number of latencies above the value
+	 */
+	public long getCountAbove(long nanos)
+	{
+		long above=0;
+
+		for(int i=NUM_BUCKETS-1;i>0 && _upperBound(i-1)>=nanos;i--)		//the buckets that start above the value
+			above+=counts[i];
+
+		return above;
+	}
+
+	/**
+	 * A summary of the latencies in milliseconds: the count, p50, p95, p99 and the maximum.
+	 */
+	public String toString()
+	{
+		return String.format("n=%d p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms",count,getPercentile(50)/1e6,getPercentile(95)/1e6,
+				getPercentile(99)/1e6,max/1e6);
+	}
+}
@@ -1,11 +1,20 @@
 package pacman.game.internal;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 //import java.util.EnumMap;
-//import pacman.game.Constants.MOVE;
+import pacman.game.Constants.MOVE;
 
 import static pacman.game.Constants.*;
 
@@ -17,10 +26,19 @@ import static pacman.game.Constants.*;
  */
 public final class Maze
 {
+	//suffix of the binary distance files (e.g., data/distances/da.bin), written by loadDistances() or DistanceTableGenerator
+	public static final String BINARY_DISTANCES=".bin";
+	//the entry of the distance table (and of a binary distance file) that stands for the distance -1 (no path)
+	static final char NO_DISTANCE=0xffff;
+	
 	public AStar astar;
-	public int[] shortestPathDistances,pillIndices,powerPillIndices,junctionIndices;	//Information for the controllers
+	public int[] pillIndices,powerPillIndices,junctionIndices;							//Information for the controllers
+	private char[] shortestPathDistances;												//16 bits per entry: see getShortestPathDistance()
+	private volatile byte[] neighbourDistances;											//one byte per pair of nodes: see getNeighbourDistances()
 	public int initialPacManNodeIndex,lairNodeIndex,initialGhostNodeIndex;				//Maze-specific information
 	public Node[] graph;																//The actual maze, stored as a graph (set of nodes)
+	public int[] neighbours;															//Flat adjacency: neighbours[node*4+move] is the neighbour in that direction or -1
+	public byte[] moveMasks;															//moveMasks[node*5+lastMove]: the moves possible without reversing (bit move.ordinal())
 	public String name;																	//Name of the Maze
 	
 	/*
@@ -34,12 +52,37 @@ public final class Maze
 	{
 		loadNodes(nodeNames[index]);
 		loadDistances(distNames[index]);
+		createAdjacency();
 		
 		//create A* graph for shortest paths for the ghosts
 		astar=new AStar();
 		astar.createGraph(graph);
 	}
 	
+	/*
+	 * Returns the number of pills of a maze, read from the preamble of its file without loading the maze (see BatchGame).
+	 */
+	public static int readNumPills(int index)
+	{
+		try
+		{
+			BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(pathMazes+System.getProperty("file.separator")+nodeNames[index]+".txt")));
+			
+			try
+			{
+				return Integer.parseInt(br.readLine().split("\t")[5]);
+			}
+			finally
+			{
+				br.close();
+			}
+		}
+		catch(IOException ioe)
+		{
+			throw new IllegalStateException("Cannot read the maze "+nodeNames[index],ioe);
+		}
+	}
+	
 	//Loads all the nodes from files and initialises all maze-specific information.
 	private void loadNodes(String fileName)
 	{
@@ -93,31 +136,267 @@ public final class Maze
         }
 	}
 	
+	/*
+	 * Flattens the neighbourhoods of the nodes into primitive arrays for the game engine: the neighbour in each direction
+	 * and, for each node and last move made, a bit mask of the moves that do not reverse the last move (all moves if the
+	 * last move is NEUTRAL). The EnumMaps of the nodes hold the same information for the controllers.
+	 */
+	private void createAdjacency()
+	{
+		MOVE[] moves=MOVE.values();
+		
+		neighbours=new int[graph.length*4];
+		moveMasks=new byte[graph.length*5];
+		
+		for(int i=0;i<graph.length;i++)
+		{
+			int all=0;
+			
+			for(int m=0;m<4;m++)
+			{
+				Integer neighbour=graph[i].neighbourhood.get(moves[m]);
+				neighbours[i*4+m]=neighbour==null ? -1 : neighbour;
+				
+				if(neighbour!=null)
+					all|=1<<m;
+			}
+			
+			for(int m=0;m<4;m++)
+				moveMasks[i*5+m]=(byte)(all&~(1<<moves[m].opposite().ordinal()));
+			
+			moveMasks[i*5+MOVE.NEUTRAL.ordinal()]=(byte)all;
+		}
+	}
+	
+	/**
+	 * Returns the shortest path distance between two nodes, or -1 if there is no path. The distances are stored as
+	 * unsigned 16-bit values (no distance in the mazes comes close to 65535) in a triangular array: the entry of the
+	 * pair (from,to) with from<=to is at to*(to+1)/2+from.
+	 *
+	 * @param fromNodeIndex The first node
+	 * @param toNodeIndex The second node
+	 * @return the shortest path distance
+	 */
+	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex)
+	{
+		int distance=fromNodeIndex<toNodeIndex ? shortestPathDistances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex]
+				: shortestPathDistances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+		
+		return distance==NO_DISTANCE ? -1 : distance;
+	}
+	
+	/**
+	 * Returns how far the neighbours of a node are from a target, as 2 bits per direction (bits 2*move.ordinal()): 0 if
+	 * there is no neighbour in that direction, otherwise 1 plus the shortest path distance from the neighbour to the target
+	 * minus that of the nearest neighbour (the distances of the neighbours differ by 2 at most). Comparing these values thus
+	 * compares the distances of the neighbours, which is all that is needed to find the next move towards or away from the
+	 * target. The table (one byte per pair of nodes) is computed when it is first needed.
+	 *
+	 * @param fromNodeIndex The node whose neighbours are considered
+	 * @param toNodeIndex The target
+	 * @return the distances of the neighbours, 2 bits per direction
+	 */
+	public int getNeighbourDistances(int fromNodeIndex,int toNodeIndex)
+	{
+		byte[] distances=neighbourDistances;
+		
+		if(distances==null)
+			distances=createNeighbourDistances();
+		
+		return distances[fromNodeIndex*graph.length+toNodeIndex]&0xff;
+	}
+	
+	private synchronized byte[] createNeighbourDistances()
+	{
+		if(neighbourDistances!=null)
+			return neighbourDistances;
+		
+		int numNodes=graph.length;
+		byte[] distances=new byte[numNodes*numNodes];
+		int[] neighbourDistance=new int[4];
+		
+		for(int from=0;from<numNodes;from++)
+			for(int to=0;to<numNodes;to++)
+			{
+				int min=Integer.MAX_VALUE;
+				
+				for(int m=0;m<4;m++)
+				{
+					int neighbour=neighbours[from*4+m];
+					
+					if(neighbour!=-1)
+					{
+						neighbourDistance[m]=neighbour==to ? 0 : getShortestPathDistance(neighbour,to);
+						min=Math.min(min,neighbourDistance[m]);
+					}
+				}
+				
+				int value=0;
+				
+				for(int m=0;m<4;m++)
+					if(neighbours[from*4+m]!=-1)
+					{
+						int difference=neighbourDistance[m]-min;
+						
+						if(difference>2)
+							throw new IllegalStateException("Inconsistent distances in maze "+name+" at node "+from);
+						
+						value|=(1+difference)<<(2*m);
+					}
+				
+				distances[from*numNodes+to]=(byte)value;
+			}
+		
+		neighbourDistances=distances;
+		
+		return distances;
+	}
+	
 	/*
 	 * Loads the shortest path distances which have been pre-computed. The data contains the shortest distance from
 	 * any node in the maze to any other node. Since the graph is symmetric, the symmetries have been removed to preserve
-	 * memory and all distances are stored in a 1D array; they are looked-up using getDistance(-). 
+	 * memory and all distances are stored in a 1D array; they are looked-up using getShortestPathDistance(-). The binary version of
+	 * the distances is used if it exists and is not older than the text file (see DistanceTableGenerator), otherwise the text
+	 * file is parsed and the binary version is written next to it, so only the first start-up after the text file changed
+	 * parses it (if the directory is read-only, every start-up does).
 	 */
 	private void loadDistances(String fileName)
 	{
-		this.shortestPathDistances=new int[((graph.length*(graph.length-1))/2)+graph.length];
+		int numEntries=((graph.length*(graph.length-1))/2)+graph.length;
 		
         try
         {
-        	BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(pathDistances+System.getProperty("file.separator")+fileName)));
-            String input=br.readLine();
-            
-            int index=0;
-            
-            while(input!=null)
-            {	
-            	shortestPathDistances[index++]=Integer.parseInt(input);
-                input=br.readLine();
-            }
+        	File textFile=new File(pathDistances+System.getProperty("file.separator")+fileName);
+        	File binaryFile=new File(textFile.getPath()+BINARY_DISTANCES);
+        	
+        	if(binaryFile.exists() && (!textFile.exists() || binaryFile.lastModified()>=textFile.lastModified()))
+        		this.shortestPathDistances=readBinaryDistances(binaryFile,numEntries);
+        	
+        	if(shortestPathDistances==null)
+        	{
+        		this.shortestPathDistances=toEntries(readTextDistances(textFile,numEntries),textFile);
+        		
+        		try
+        		{
+        			writeBinaryDistances(shortestPathDistances,binaryFile);
+        		}
+        		catch(IOException e)
+        		{
+        			//best effort: the text file is parsed again next time
+        		}
+        	}
         }
         catch(IOException ioe)
         {
             ioe.printStackTrace();
         }
 	}
-}
\ No newline at end of file
+	
+	/*
+	 * Converts distances into the entries of the distance table (see getShortestPathDistance()): -1 becomes NO_DISTANCE. A
+	 * distance that does not fit into an entry is rejected rather than truncated.
+	 */
+	static char[] toEntries(int[] distances,File source) throws IOException
+	{
+		char[] entries=new char[distances.length];
+		
+		for(int i=0;i<distances.length;i++)
+		{
+			if(distances[i]<-1 || distances[i]>=NO_DISTANCE)
+				throw new IOException("Distance out of range in "+source+": "+distances[i]);
+			
+			entries[i]=distances[i]==-1 ? NO_DISTANCE : (char)distances[i];
+		}
+		
+		return entries;
+	}
+	
+	/*
+	 * Parses a text file of distances, one per line. If numEntries is negative, the number of entries is not known in advance.
+	 */
+	static int[] readTextDistances(File file,int numEntries) throws IOException
+	{
+		int[] distances=new int[numEntries<0 ? 1<<20 : numEntries];
+		int index=0;
+		
+		BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+		
+		try
+		{
+			String input=br.readLine();
+			
+			while(input!=null)
+			{
+				if(index==distances.length)
+					distances=Arrays.copyOf(distances,index*2);
+				
+				distances[index++]=Integer.parseInt(input);
+				input=br.readLine();
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+		
+		return numEntries<0 ? Arrays.copyOf(distances,index) : distances;
+	}
+	
+	/*
+	 * Writes a binary file of distances (see readBinaryDistances()). The entries are written to a temporary file that then
+	 * replaces the file given, so a game starting at the same time never maps a file that is only partly written.
+	 */
+	static void writeBinaryDistances(char[] distances,File file) throws IOException
+	{
+		File directory=file.getAbsoluteFile().getParentFile();
+		File temporary=File.createTempFile(file.getName(),".tmp",directory);
+		
+		try
+		{
+			DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			
+			try
+			{
+				for(char distance : distances)
+					out.writeChar(distance);
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			Files.move(temporary.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			temporary.delete();		//only left if the file could not be written or moved
+		}
+	}
+	
+	/*
+	 * Reads a binary file of distances (unsigned 16-bit entries, big-endian, 0xffff for -1) by mapping it into memory. Returns null if the
+	 * file does not have the expected number of entries, e.g., because it was generated for a different version of the maze.
+	 */
+	static char[] readBinaryDistances(File file,int numEntries) throws IOException
+	{
+		FileInputStream in=new FileInputStream(file);
+		
+		try
+		{
+			FileChannel channel=in.getChannel();
+			
+			if(channel.size()!=2L*numEntries)
+				return null;
+			
+			CharBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()).asCharBuffer();
+			char[] distances=new char[numEntries];
+			buffer.get(distances);
+			
+			return distances;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -18,22 +18,7 @@ public class NearestPillPacMan extends Controller<MOVE>
 	{		
 		int currentNodeIndex=game.getPacmanCurrentNodeIndex();
 		
-		//get all active pills
-		int[] activePills=game.getActivePillsIndices();
-		
-		//get all active power pills
-		int[] activePowerPills=game.getActivePowerPillsIndices();
-		
-		//create a target array that includes all ACTIVE pills and power pills
-		int[] targetNodeIndices=new int[activePills.length+activePowerPills.length];
-		
-		for(int i=0;i<activePills.length;i++)
-			targetNodeIndices[i]=activePills[i];
-		
-		for(int i=0;i<activePowerPills.length;i++)
-			targetNodeIndices[activePills.length+i]=activePowerPills[i];		
-		
-		//return the next direction once the closest target has been identified
-		return game.getNextMoveTowardsTarget(game.getPacmanCurrentNodeIndex(),game.getClosestNodeIndexFromNodeIndex(currentNodeIndex,targetNodeIndices,DM.PATH),DM.PATH);	
+		//return the next direction once the closest active pill or power pill has been identified
+		return game.getNextMoveTowardsTarget(currentNodeIndex,game.getClosestActivePillNodeIndex(currentNodeIndex,true),DM.PATH);	
 	}
 }
\ No newline at end of file
@@ -24,17 +24,9 @@ public final class NearestPillPacManVS extends Controller<MOVE>
 	public MOVE getMove(Game game,long timeDue)
 	{		
 		int currentNodeIndex=game.getPacmanCurrentNodeIndex();	
-		int[] activePills=game.getActivePillsIndices();
 		int[] activePowerPills=game.getActivePowerPillsIndices();
-		int[] targetNodeIndices=new int[activePills.length+activePowerPills.length];
 		
-		for(int i=0;i<activePills.length;i++)
-			targetNodeIndices[i]=activePills[i];
-		
-		for(int i=0;i<activePowerPills.length;i++)
-			targetNodeIndices[activePills.length+i]=activePowerPills[i];		
-		
-		int nearest = game.getClosestNodeIndexFromNodeIndex(currentNodeIndex,targetNodeIndices,DM.PATH);
+		int nearest=game.getClosestActivePillNodeIndex(currentNodeIndex,true);
 				
 		//add the path that Ms Pac-Man is following
 //		GameView.addPoints(game,Color.GREEN,game.getShortestPath(game.getPacmanCurrentNodeIndex(),nearest));
@@ -0,0 +1,265 @@
+package pacman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import pacman.controllers.Controller;
+import pacman.game.Game;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Runs the trials of an experiment (see Executor.runExperiment()) on several cores. The seed of every trial is derived
+ * before any game is played, and every trial plays with new controllers obtained from the suppliers given, so the trials
+ * are independent of each other: the scores are the same whatever the number of threads, as long as the controllers
+ * themselves are deterministic (i.e., do not use an unseeded Random or the time left until the move is due).
+ *
+ * The seeds are those of Executor.runExperiment() for the same master seed (0 there), so both give the same scores as
+ * long as the controllers are also stateless: runExperiment() plays all trials with the same controller instances, so a
+ * controller that keeps state from one game to the next (e.g., one that learns) may score differently there.
+ */
+public class ParallelExperiment
+{
+	private final Supplier<? extends Controller<MOVE>> pacManControllers;
+	private final Supplier<? extends Controller<EnumMap<GHOST,MOVE>>> ghostControllers;
+	private final int parallelism;
+
+	/**
+	 * Instantiates a new experiment.
+	 *
+	 * @param pacManControllers Creates the Pac-Man controller of a trial
+	 * @param ghostControllers Creates the ghosts controller of a trial
+	 * @param parallelism The number of trials played at the same time
+	 */
+	public ParallelExperiment(Supplier<? extends Controller<MOVE>> pacManControllers,Supplier<? extends Controller<EnumMap<GHOST,MOVE>>> ghostControllers,int parallelism)
+	{
+		if(parallelism<1)
+			throw new IllegalArgumentException("The parallelism must be at least 1: "+parallelism);
+
+		this.pacManControllers=pacManControllers;
+		this.ghostControllers=ghostControllers;
+		this.parallelism=parallelism;
+	}
+
+	/**
+	 * Instantiates a new experiment that uses all processors.
+	 */
+	public ParallelExperiment(Supplier<? extends Controller<MOVE>> pacManControllers,Supplier<? extends Controller<EnumMap<GHOST,MOVE>>> ghostControllers)
+	{
+		this(pacManControllers,ghostControllers,Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Derives the seeds of the trials from a master seed.
+	 *
+	 * @param masterSeed The master seed
+	 * @param trials The number of trials
+	 * @return the seed of each trial
+	 */
+	public static long[] deriveSeeds(long masterSeed,int trials)
+	{
+		Random rnd=new Random(masterSeed);
+		long[] seeds=new long[trials];
+
+		for(int i=0;i<trials;i++)
+			seeds[i]=rnd.nextLong();
+
+		return seeds;
+	}
+
+	/**
+	 * Plays one game without visuals, as Executor.runExperiment() does, and returns its score.
+	 *
+	 * @param pacManController The Pac-Man controller
+	 * @param ghostController The ghosts controller
+	 * @param seed The seed of the game
+	 * @return the score
+	 */
+	public static int playGame(Controller<MOVE> pacManController,Controller<EnumMap<GHOST,MOVE>> ghostController,long seed)
+	{
+		return playGame(pacManController,ghostController,seed,0);
+	}
+
+	/**
+	 * As playGame(pacManController,ghostController,seed) but the game starts in the maze given.
+	 */
+	public static int playGame(Controller<MOVE> pacManController,Controller<EnumMap<GHOST,MOVE>> ghostController,long seed,int initialMaze)
+	{
+		Game game=new Game(seed,initialMaze);
+
+		while(!game.gameOver())
+		{
+			game.advanceGame(pacManController.getMove(game.copy(),System.currentTimeMillis()+DELAY),
+					ghostController.getMove(game.copy(),System.currentTimeMillis()+DELAY));
+		}
+
+		return game.getScore();
+	}
+
+	/**
+	 * Runs the number of trials given with the seeds derived from the master seed 0.
+	 *
+	 * @param trials The number of trials
+	 * @return the results
+	 */
+	public Result run(int trials)
+	{
+		return run(deriveSeeds(0,trials));
+	}
+
+	/**
+	 * Runs one trial per seed given.
+	 *
+	 * @param seeds The seeds of the trials
+	 * @return the results, in the order of the seeds
+	 */
+	public Result run(long[] seeds)
+	{
+		final int[] scores=new int[seeds.length];
+		List<Callable<Void>> trials=new ArrayList<Callable<Void>>(seeds.length);
+
+		for(int i=0;i<seeds.length;i++)
+		{
+			final int trial=i;
+			final long seed=seeds[i];
+
+			trials.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					scores[trial]=playGame(pacManControllers.get(),ghostControllers.get(),seed);
+
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool=new ForkJoinPool(parallelism);
+
+		try
+		{
+			for(Future<Void> future : pool.invokeAll(trials))
+				future.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the trials",e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new IllegalStateException("A trial failed",e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		return new Result(scores);
+	}
+
+	/**
+	 * The scores of the trials of an experiment and their statistics.
+	 */
+	public static final class Result
+	{
+		private final int[] scores,sorted;
+		private final double mean,standardDeviation;
+
+		Result(int[] scores)
+		{
+			this.scores=scores;
+			this.sorted=scores.clone();
+			Arrays.sort(sorted);
+
+			double sum=0;
+
+			for(int score : scores)
+				sum+=score;
+
+			mean=scores.length==0 ? Double.NaN : sum/scores.length;
+
+			double squares=0;
+
+			for(int score : scores)
+				squares+=(score-mean)*(score-mean);
+
+			standardDeviation=scores.length<2 ? 0 : Math.sqrt(squares/(scores.length-1));
+		}
+
+		/**
+		 * The number of trials.
+		 */
+		public int getTrials()
+		{
+			return scores.length;
+		}
+
+		/**
+		 * The score of each trial, in the order of the seeds.
+		 */
+		public int[] getScores()
+		{
+			return scores.clone();
+		}
+
+		public double getMean()
+		{
+			return mean;
+		}
+
+		/**
+		 * The sample standard deviation of the scores.
+		 */
+		public double getStandardDeviation()
+		{
+			return standardDeviation;
+		}
+
+		/**
+		 * The standard error of the mean.
+		 */
+		public double getStandardError()
+		{
+			return scores.length==0 ? Double.NaN : standardDeviation/Math.sqrt(scores.length);
+		}
+
+		/**
+		 * The score below which the percentage of scores given lies (nearest rank: the 50th percentile of
+		 * 4 scores is the 2nd lowest, the 100th the highest).
+		 *
+		 * @param percent The percentage (0-100)
+		 * @return the percentile
+		 */
+		public int getPercentile(double percent)
+		{
+			if(percent<0 || percent>100)
+				throw new IllegalArgumentException("Not a percentage: "+percent);
+
+			if(sorted.length==0)
+				throw new IllegalStateException("No trials");
+
+			int rank=(int)Math.ceil(percent/100*sorted.length);
+
+			return sorted[Math.max(rank,1)-1];
+		}
+
+		public String toString()
+		{
+			if(scores.length==0)
+				return "trials: 0";
+
+			return String.format("trials: %d, mean: %.1f, sd: %.1f, se: %.1f, min: %d, p25: %d, p50: %d, p75: %d, p95: %d, max: %d",
+					scores.length,mean,standardDeviation,getStandardError(),sorted[0],getPercentile(25),getPercentile(50),
+					getPercentile(75),getPercentile(95),sorted[sorted.length-1]);
+		}
+	}
+}
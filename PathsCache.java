@@ -3,8 +3,6 @@ package pacman.game.internal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.HashMap;
-import java.util.Set;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 
@@ -21,168 +19,403 @@ import pacman.game.Game;
  *  (a) Looking at all combinations of 2-4 junctions, choosing the shortest path that also takes into account the path to get to either of them.
  *  
  * If one only wants the distance instead of the path, a more efficient method has been implemented that does not need to copy arrays.
+ * Paths can also be obtained as an IntPath, which refers to the pre-computed paths instead of copying them.
+ * 
+ * The paths are computed using the objects at the end of this file (DNode, JunctionData, Junction) and then stored in flat
+ * arrays: all paths are kept one after the other in a single array and addressed by offset and length, the paths from each
+ * node to its nearest junctions occupy a fixed number of slots per node and junctions are numbered densely.
  */
 public class PathsCache 
 {	
-	public HashMap<Integer, Integer> junctionIndexConverter;
-	public DNode[] nodes;
-	public Junction[] junctions;
+	private static final char NO_DISTANCE=0xffff;
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final int NEUTRAL=MOVE.NEUTRAL.ordinal();
+	private static final int ON_THE_WAY=1<<30;		//see selectPath()
+	
+	//the number of paths to junctions per node: a junction has one (to itself), other nodes one per neighbour
+	private static final int SLOTS=2;
+	
 	public Game game;
+	
+	private final int numNodes,numJunctions;
+	private int[] junctionIds;				//node index -> junction id, or -1 if the node is not a junction
+	private int[] junctionNodes;			//junction id -> node index
+	private int[] pathNodes;				//all the paths, one after the other
+	
+	//the paths from each node to its nearest junctions, node*SLOTS+slot (in the order in which they were found)
+	private int[] numSlots;
+	private int[] slotJunctions;			//the id of the junction reached
+	private int[] slotFirstMoves;			//the move made at the node (NEUTRAL for a junction)
+	private int[] slotLastMoves;			//the move with which the junction is entered (NEUTRAL for a junction)
+	private int[] slotReturnMoves;			//the move from the junction back along the path
+	private int[] slotOffsets;				//the path (in pathNodes), from the node to the junction
+	private int[] slotReverseOffsets;		//the same path in reverse, from the junction to the node
+	private int[] slotLengths;
+	
+	//the shortest paths between junctions for each first move, (fromId*numJunctions+toId)*5+move; NEUTRAL: the shortest one
+	private int[] junctionPathOffsets;		//-1 if there is no such path
+	private int[] junctionPathLengths;
+	
+	private char[] junctionDistances;		//(junctionId*5+moveEnteredJunction)*numNodes+target: see getPathDistanceFromA2B()
 		
  	public PathsCache(int mazeIndex)
 	{
-		junctionIndexConverter = new HashMap<Integer, Integer>();
-		
 		this.game=new Game(0,mazeIndex);
 		Maze m = game.getCurrentMaze();
 		
-		int[] jctIndices = m.junctionIndices;
+		numNodes=m.graph.length;
+		numJunctions=m.junctionIndices.length;
 		
-		for (int i = 0; i < jctIndices.length; i++)
-			junctionIndexConverter.put(jctIndices[i], i);
+		junctionNodes=m.junctionIndices.clone();
+		junctionIds=new int[numNodes];
+		Arrays.fill(junctionIds,-1);
+		
+		for (int i = 0; i < numJunctions; i++)
+			junctionIds[junctionNodes[i]]=i;
 
-		nodes = assignJunctionsToNodes(game);
-		junctions = junctionDistances(game);
+		DNode[] nodes = assignJunctionsToNodes(game);
+		Junction[] junctions = junctionDistances(game);
 		
 		for(int i=0;i<junctions.length;i++)
 			junctions[i].computeShortestPaths();
+		
+		flatten(nodes, junctions);
+		
+		junctionDistances=createJunctionDistances();
 	}
+ 	
+ 	/*
+ 	 * Copies the paths found into the flat arrays.
+ 	 */
+ 	private void flatten(DNode[] nodes, Junction[] junctions)
+ 	{
+ 		int size=0;
+ 		
+ 		for (DNode node : nodes)
+ 			for (JunctionData data : node.closestJunctions)
+ 				size += 2*data.path.length;
+ 		
+ 		for (Junction junction : junctions)
+ 			for (EnumMap<MOVE, int[]> paths : junction.paths)
+ 				for (int[] path : paths.values())
+ 					size += path.length;
+ 		
+ 		pathNodes=new int[size];
+ 		size=0;
+ 		
+ 		numSlots=new int[numNodes];
+ 		slotJunctions=new int[numNodes*SLOTS];
+ 		slotFirstMoves=new int[numNodes*SLOTS];
+ 		slotLastMoves=new int[numNodes*SLOTS];
+ 		slotReturnMoves=new int[numNodes*SLOTS];
+ 		slotOffsets=new int[numNodes*SLOTS];
+ 		slotReverseOffsets=new int[numNodes*SLOTS];
+ 		slotLengths=new int[numNodes*SLOTS];
+ 		
+ 		for (int n = 0; n < numNodes; n++)
+ 		{
+ 			ArrayList<JunctionData> closestJunctions=nodes[n].closestJunctions;
+ 			
+ 			if (closestJunctions.size() > SLOTS)
+ 				throw new IllegalStateException("Node "+n+" has "+closestJunctions.size()+" nearest junctions");
+ 			
+ 			numSlots[n]=closestJunctions.size();
+ 			
+ 			for (int k = 0; k < closestJunctions.size(); k++)
+ 			{
+ 				JunctionData data=closestJunctions.get(k);
+ 				int slot=n*SLOTS+k;
+ 				
+ 				slotJunctions[slot]=junctionIds[data.nodeID];
+ 				slotFirstMoves[slot]=data.firstMove.ordinal();
+ 				slotLastMoves[slot]=data.lastMove.ordinal();
+ 				slotLengths[slot]=data.path.length;
+ 				
+ 				if (data.path.length > 0)
+ 				{
+ 					MOVE returnMove=game.getMoveToMakeToReachDirectNeighbour(data.nodeID, data.reversePath[0]);
+ 					slotReturnMoves[slot]=returnMove==null ? -1 : returnMove.ordinal();
+ 				}
+ 				
+ 				slotOffsets[slot]=size;
+ 				System.arraycopy(data.path, 0, pathNodes, size, data.path.length);
+ 				size += data.path.length;
+ 				
+ 				slotReverseOffsets[slot]=size;
+ 				System.arraycopy(data.reversePath, 0, pathNodes, size, data.reversePath.length);
+ 				size += data.reversePath.length;
+ 			}
+ 		}
+ 		
+ 		junctionPathOffsets=new int[numJunctions*numJunctions*MOVES.length];
+ 		junctionPathLengths=new int[numJunctions*numJunctions*MOVES.length];
+ 		Arrays.fill(junctionPathOffsets, -1);
+ 		
+ 		for (int from = 0; from < numJunctions; from++)
+ 			for (int to = 0; to < numJunctions; to++)
+ 				for (int m = 0; m < MOVES.length; m++)
+ 				{
+ 					int[] path=junctions[from].paths[to].get(MOVES[m]);
+ 					
+ 					if (path != null)
+ 					{
+ 						int index=(from*numJunctions+to)*MOVES.length+m;
+ 						
+ 						junctionPathOffsets[index]=size;
+ 						junctionPathLengths[index]=path.length;
+ 						System.arraycopy(path, 0, pathNodes, size, path.length);
+ 						size += path.length;
+ 					}
+ 				}
+ 	}
 
 	//for Ms Pac-Man
 	public int[] getPathFromA2B(int a, int b)
 	{
+		return getPathFromA2B(a, b, new IntPath()).toArray();
+	}
+	
+	/*
+	 * As getPathFromA2B(a,b) but the path is made up of the pre-computed paths instead of being copied into a new array.
+	 */
+	public IntPath getPathFromA2B(int a, int b, IntPath path)
+	{
+		path.clear();
+		
 		//not going anywhere
 		if(a==b)
-			return new int[]{};
+			return path;
 		
-		//junctions near the source
-		ArrayList<JunctionData> closestFromJunctions=nodes[a].closestJunctions;
-		
-		//if target is on the way to junction, then we are done
-		for(int w=0; w<closestFromJunctions.size(); w++)
-			for (int i = 0; i < closestFromJunctions.get(w).path.length; i++)
-				if (closestFromJunctions.get(w).path[i] == b)
-					return Arrays.copyOf(closestFromJunctions.get(w).path, i + 1);
-		
-		//junctions near the target
-		ArrayList<JunctionData> closestToJunctions=nodes[b].closestJunctions;
+		//if target is on the way to a junction near the source, then we are done
+		for (int from = a*SLOTS; from < a*SLOTS+numSlots[a]; from++)
+			for (int i = 0; i < slotLengths[from]; i++)
+				if (pathNodes[slotOffsets[from]+i] == b)
+				{
+					path.add(pathNodes, slotOffsets[from], i + 1);
+					return path;
+				}
 		
 		int minFrom=-1;
 		int minTo=-1;
 		int minDistance=Integer.MAX_VALUE;
-		int[] shortestPath=null;
+		int shortestPath=-1;
 		
-		for (int i = 0; i < closestFromJunctions.size(); i++) 
+		//all combinations of the junctions near the source and the junctions near the target
+		for (int from = a*SLOTS; from < a*SLOTS+numSlots[a]; from++) 
 		{			
-			for (int j = 0; j < closestToJunctions.size(); j++) 
+			for (int to = b*SLOTS; to < b*SLOTS+numSlots[b]; to++) 
 			{
-				//to the first junction
-				int distance=closestFromJunctions.get(i).path.length;
-				//junction to junction
-				int[] tmpPath=junctions[junctionIndexConverter.get(closestFromJunctions.get(i).nodeID)]
-						.paths[junctionIndexConverter.get(closestToJunctions.get(j).nodeID)].get(MOVE.NEUTRAL);
-				distance+=tmpPath.length;				
-				//to the second junction
-				distance+=closestToJunctions.get(j).path.length;
+				//to the first junction, junction to junction and to the target from the second junction
+				int tmpPath=(slotJunctions[from]*numJunctions+slotJunctions[to])*MOVES.length+NEUTRAL;
+				int distance=slotLengths[from]+junctionPathLengths[tmpPath]+slotLengths[to];
 			
 				if(distance<minDistance)
 				{
 					minDistance=distance;
-					minFrom=i;
-					minTo=j;
+					minFrom=from;
+					minTo=to;
 					shortestPath=tmpPath;
 				}
 			}
 		}
 		
-		return concat(closestFromJunctions.get(minFrom).path, shortestPath, closestToJunctions.get(minTo).reversePath);
+		//the lair, which has no junctions near it
+		if (minFrom == -1)
+			throw new IndexOutOfBoundsException("No path from "+a+" to "+b);
+		
+		path.add(pathNodes, slotOffsets[minFrom], slotLengths[minFrom]);
+		path.add(pathNodes, junctionPathOffsets[shortestPath], junctionPathLengths[shortestPath]);
+		path.add(pathNodes, slotReverseOffsets[minTo], slotLengths[minTo]);
+		
+		return path;
 	}
 	
 	/////// ghosts //////////
 	
-	//To be made more efficient shortly.
+	/*
+	 * Returns the length of getPathFromA2B(a,b,lastMoveMade) without creating the path: the distance to the nearest junction
+	 * ahead (or to the target, if it lies on the way) is looked up in the paths of the node, the rest of the way from that
+	 * junction is read from a table computed in advance for all junctions, moves entering them and targets.
+	 */
 	public int getPathDistanceFromA2B(int a, int b, MOVE lastMoveMade)
 	{
-		return getPathFromA2B(a, b, lastMoveMade).length;
+		//not going anywhere
+		if(a==b)
+			return 0;
+		
+		int from = getNearestJunction(a, lastMoveMade);
+		int offset = slotOffsets[from];
+		
+		//if target is on the way to junction, then we are done
+		for (int i = 0; i < slotLengths[from]; i++)
+			if (pathNodes[offset+i] == b)
+				return i + 1;
+		
+		int moveEnteredJunction = slotLastMoves[from] == NEUTRAL ? lastMoveMade.ordinal() : slotLastMoves[from];
+		int distance=junctionDistances[(slotJunctions[from]*MOVES.length+moveEnteredJunction)*numNodes+b];
+		
+		//no path found when the table was computed: let getPathFromA2B() deal with it
+		if(distance==NO_DISTANCE)
+			return getPathFromA2B(a, b, lastMoveMade).length;
+		
+		return slotLengths[from]+distance;
 	}
 	
 	public int[] getPathFromA2B(int a, int b, MOVE lastMoveMade)
 	{
+		return getPathFromA2B(a, b, lastMoveMade, new IntPath()).toArray();
+	}
+	
+	/*
+	 * As getPathFromA2B(a,b,lastMoveMade) but the path is made up of the pre-computed paths instead of being copied into a new array.
+	 */
+	public IntPath getPathFromA2B(int a, int b, MOVE lastMoveMade, IntPath path)
+	{
+		path.clear();
+		
 		//not going anywhere
 		if(a==b)
-			return new int[]{};
+			return path;
 
 		//first, go to closest junction (there is only one since we can't reverse)
-		JunctionData fromJunction = nodes[a].getNearestJunction(lastMoveMade);
+		int from = getNearestJunction(a, lastMoveMade);
+		int offset = slotOffsets[from];
 		
 		//if target is on the way to junction, then we are done
-		for (int i = 0; i < fromJunction.path.length; i++)
-			if (fromJunction.path[i] == b)
-				return Arrays.copyOf(fromJunction.path, i + 1);
-		
-		//we have reached a junction, fromJunction, which we entered with moveEnteredJunction
-		int junctionFrom = fromJunction.nodeID;
-		int junctionFromId = junctionIndexConverter.get(junctionFrom);
-		MOVE moveEnteredJunction = fromJunction.lastMove.equals(MOVE.NEUTRAL) ? lastMoveMade : fromJunction.lastMove; //if we are at a junction, consider last move instead
-		 	
-		//now we need to get the 1 or 2 target junctions that enclose the target point
-		ArrayList<JunctionData> junctionsTo=nodes[b].closestJunctions;
-				
-		int minDist = Integer.MAX_VALUE;
-		int[] shortestPath = null;
-		int closestJunction = -1;		
+		for (int i = 0; i < slotLengths[from]; i++)
+			if (pathNodes[offset+i] == b)
+			{
+				path.add(pathNodes, offset, i + 1);
+				return path;
+			}
+		
+		//we have reached a junction, which we entered with moveEnteredJunction (if we are at a junction, consider last move instead)
+		int moveEnteredJunction = slotLastMoves[from] == NEUTRAL ? lastMoveMade.ordinal() : slotLastMoves[from];
+		long choice = selectPath(slotJunctions[from], moveEnteredJunction, b);
+		
+		if (choice < 0)
+			throw new IndexOutOfBoundsException("No path from "+a+" to "+b+" after "+lastMoveMade);
 		
-		boolean onTheWay=false;
+		int to = (int)(choice >>> 32);
+		int value = (int)choice & ~ON_THE_WAY;
+		
+		path.add(pathNodes, offset, slotLengths[from]);
+		
+		//the target lies between the junction and the next one: go back along the path of the target
+		if (((int)choice & ON_THE_WAY) != 0)
+			path.add(pathNodes, slotReverseOffsets[to], value);
+		//or via the junction nearest the target, then back along the path of the target to that junction
+		else
+		{
+			path.add(pathNodes, junctionPathOffsets[value], junctionPathLengths[value]);
+			path.add(pathNodes, slotReverseOffsets[to], slotLengths[to]);
+		}
+		
+		return path;
+	}
 	
-		for (int q = 0; q < junctionsTo.size(); q++) 
+	/*
+	 * The path of a ghost from a junction it entered with the move given to the target (not at the junction): returns the slot
+	 * of the target's junction used in the upper 32 bits and in the lower 32 bits either ON_THE_WAY and the number of nodes
+	 * of the reverse path of that slot to take, or the index of the path between the junctions. Returns -1 if there is none.
+	 */
+	private long selectPath(int junctionFromId, int moveEnteredJunction, int b)
+	{
+		int oppositeEntered = MOVES[moveEnteredJunction].opposite().ordinal();
+		int minDist = Integer.MAX_VALUE;
+		long choice = -1;
+		
+		//now we need to get the 1 or 2 target junctions that enclose the target point
+		for (int to = b*SLOTS; to < b*SLOTS+numSlots[b]; to++) 
 		{
-			int junctionToId = junctionIndexConverter.get(junctionsTo.get(q).nodeID);
+			int junctionToId = slotJunctions[to];
 			
 			if(junctionFromId==junctionToId)
 			{
-				if(!game.getMoveToMakeToReachDirectNeighbour(junctionFrom, junctionsTo.get(q).reversePath[0]).equals(moveEnteredJunction.opposite()))
+				if(slotReturnMoves[to] != oppositeEntered)
 				{
-					int[] reversepath=junctionsTo.get(q).reversePath;
+					int reversePath=slotReverseOffsets[to];
 					int cutoff=-1;
 					
-					for(int w=0;w<reversepath.length;w++)
-						if(reversepath[w]==b)
+					for(int w=0;w<slotLengths[to];w++)
+						if(pathNodes[reversePath+w]==b)
 							cutoff=w;
 					
-					shortestPath = Arrays.copyOf(reversepath, cutoff+1);
-					minDist = shortestPath.length;
-					closestJunction = q;
-					onTheWay=true;
+					minDist = cutoff+1;
+					choice = ((long)to << 32) | ON_THE_WAY | minDist;
 				}
 			}
 			else
-			{				
-				EnumMap<MOVE, int[]> paths = junctions[junctionFromId].paths[junctionToId];				
-				Set<MOVE> set=paths.keySet();
-					
-				for (MOVE move : set) 
-				{				
-					if (!move.opposite().equals(moveEnteredJunction) && !move.equals(MOVE.NEUTRAL)) 
+			{
+				int paths = (junctionFromId*numJunctions+junctionToId)*MOVES.length;
+				
+				for (int move = 0; move < NEUTRAL; move++) 
+				{
+					//need to take distance from toJunction to target into account
+					if (junctionPathOffsets[paths+move] != -1 && move != oppositeEntered
+							&& junctionPathLengths[paths+move]+slotLengths[to] < minDist)
 					{
-						int[] path = paths.get(move);
-						
-						if (path.length+junctionsTo.get(q).path.length < minDist)//need to take distance from toJunction to target into account
-						{							
-							minDist = path.length+junctionsTo.get(q).path.length;
-							shortestPath = path;
-							closestJunction = q;
-							onTheWay=false;
-						}
+						minDist = junctionPathLengths[paths+move]+slotLengths[to];
+						choice = ((long)to << 32) | (paths+move);
 					}
 				}
 			}
 		}
+		
+		return choice;
+	}
+	
+	/*
+	 * The slot of the nearest junction ahead of the node given the last move made, or -1 if there is none.
+	 */
+	private int getNearestJunction(int a, MOVE lastMoveMade)
+	{
+		if (junctionIds[a] != -1)
+			return a*SLOTS;
+		
+		int opposite = lastMoveMade.opposite().ordinal();
+		int minDist = Integer.MAX_VALUE;
+		int best = -1;
+		
+		for (int slot = a*SLOTS; slot < a*SLOTS+numSlots[a]; slot++)
+			if (slotFirstMoves[slot] != opposite && slotLengths[slot] < minDist)
+			{
+				minDist = slotLengths[slot];
+				best = slot;
+			}
+		
+		return best;
+	}
+	
+	/*
+	 * For every junction, move with which the junction is entered and target, the length of the path getPathFromA2B()
+	 * takes from the junction to the target (NO_DISTANCE if there is none), so that getPathDistanceFromA2B() need not
+	 * create the paths.
+	 */
+	private char[] createJunctionDistances()
+	{
+		char[] distances=new char[numJunctions*MOVES.length*numNodes];
+		
+		for (int j = 0; j < numJunctions; j++)
+			for (int m = 0; m < MOVES.length; m++)
+				for (int b = 0; b < numNodes; b++)
+				{
+					//a junction is only its own target if one starts there, which is dealt with before the table is used
+					long choice = b == junctionNodes[j] ? -1 : selectPath(j, m, b);
+					int distance = -1;
 					
-		if(!onTheWay)
-			return concat(fromJunction.path, shortestPath, junctionsTo.get(closestJunction).reversePath);
-		else
-			return concat(fromJunction.path, shortestPath);
-//			return concat(fromJunction.path, junctionsTo.get(closestJunction).reversePath);
+					if (choice >= 0)
+					{
+						int to = (int)(choice >>> 32);
+						int value = (int)choice & ~ON_THE_WAY;
+						
+						distance = ((int)choice & ON_THE_WAY) != 0 ? value : junctionPathLengths[value]+slotLengths[to];
+					}
+					
+					distances[(j*MOVES.length+m)*numNodes+b] = b == junctionNodes[j] ? 0 : distance<0 || distance>=NO_DISTANCE ? NO_DISTANCE : (char)distance;
+				}
+		
+		return distances;
 	}
 
 	private Junction[] junctionDistances(Game game)
@@ -204,7 +437,6 @@ public class PathsCache
 				{
 					int neighbour = game.getNeighbour(indices[q],possibleMoves[i]);
 					int[] p = m.astar.computePathsAStar(neighbour,indices[z], possibleMoves[i], game);
-					m.astar.resetGraph();
 
 					junctions[q].addPath(z, possibleMoves[i], p);
 				}
@@ -265,24 +497,6 @@ public class PathsCache
 
 		return allNodes;
 	}
-	
-	private int[] concat(int[]... arrays) 
-	{
-		int totalLength = 0;
-
-		for (int i = 0; i < arrays.length; i++)
-			totalLength += arrays[i].length;
-
-		int[] fullArray = new int[totalLength];
-
-		int index = 0;
-
-		for (int i = 0; i < arrays.length; i++)
-			for (int j = 0; j < arrays[i].length; j++)
-				fullArray[index++] = arrays[i][j];
-
-		return fullArray;
-	}
 }
 
 class JunctionData 
@@ -340,44 +554,6 @@ class DNode
 			closestJunctions.add(new JunctionData(nodeID,MOVE.NEUTRAL,nodeID,new int[]{},MOVE.NEUTRAL));
 	}
 
-	public int[] getPathToJunction(MOVE lastMoveMade) 
-	{
-		if(isJunction)
-			return new int[]{};
-		
-		for (int i = 0; i < closestJunctions.size(); i++)
-			if (!closestJunctions.get(i).firstMove.equals(lastMoveMade.opposite()))
-				return closestJunctions.get(i).path;
-
-		return null;
-	}
-
-	public JunctionData getNearestJunction(MOVE lastMoveMade) 
-	{
-		if(isJunction)
-			return closestJunctions.get(0);
-		
-		int minDist=Integer.MAX_VALUE;
-		int bestIndex=-1;
-		
-		for (int i = 0; i < closestJunctions.size(); i++)
-			if (!closestJunctions.get(i).firstMove.equals(lastMoveMade.opposite()))
-			{
-				int newDist=closestJunctions.get(i).path.length;
-				
-				if(newDist<minDist)
-				{
-					minDist=newDist;
-					bestIndex=i;
-				}
-			}
-
-		if(bestIndex!=-1)
-			return closestJunctions.get(bestIndex);
-		else
-			return null;
-	}
-
 	public void addPath(int junctionID, MOVE firstMove, int nodeStartedFrom,int[] path, MOVE lastMove) 
 	{
 		closestJunctions.add(new JunctionData(junctionID, firstMove, nodeStartedFrom,path, lastMove));
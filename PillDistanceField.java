@@ -0,0 +1,327 @@
+package pacman.game.internal;
+
+import java.util.Arrays;
+
+/*
+ * Stores, for every node of a maze, the shortest path distance to the nearest of a set of targets (the pills or the power
+ * pills still in the maze) and which target that is. Both are packed into one int per node, (distance<<16)|targetNodeIndex,
+ * so that comparing two values compares the distances first and, on a tie, prefers the target with the lower node index.
+ *
+ * A field reflects a particular set of targets, given as words of bits (bit i is the target maze.pillIndices[i] or
+ * maze.powerPillIndices[i], as in Game). When the set changes, sync() repairs the field instead of recomputing it: if a target
+ * disappears, only the nodes for which it was the nearest one are recomputed (a bounded Dijkstra from the nodes surrounding
+ * them) and if one appears, the search only spreads as far as it improves on the field.
+ *
+ * Fields are shared between copies of a game. A field may only be modified by its owner; sync() returns a copy owned by the
+ * caller if necessary, so all other games holding the field keep seeing the targets it reflected before.
+ */
+public final class PillDistanceField
+{
+	private static final int NONE=0xffff;
+	private static final int INFINITY=Integer.MAX_VALUE;		//(0x7fff<<16)|NONE
+	private static final int STEP=1<<16;
+
+	private static final ThreadLocal<Workspace> workspaces=new ThreadLocal<Workspace>()
+	{
+		protected Workspace initialValue()
+		{
+			return new Workspace();
+		}
+	};
+
+	private final Maze maze;
+	private final int[] targets;		//the node index of every target (maze.pillIndices or maze.powerPillIndices)
+	private final int[] neighbours;		//maze.neighbours: node*4+move is the neighbour in that direction, or -1
+	private final int[] values;
+	private final long[] words;
+	private Object owner;
+
+	/**
+	 * Creates the field of a maze in which all the targets are present.
+	 *
+	 * @param maze The maze
+	 * @param targets The node indices of the targets (maze.pillIndices or maze.powerPillIndices)
+	 */
+	public PillDistanceField(Maze maze,int[] targets)
+	{
+		this.maze=maze;
+		this.targets=targets;
+		this.neighbours=maze.neighbours;
+		this.values=new int[maze.graph.length];
+		this.words=new long[(targets.length+63)>>>6];
+
+		Arrays.fill(values,INFINITY);
+
+		Workspace ws=workspaces.get();
+		ws.begin(values.length);
+
+		for(int i=0;i<targets.length;i++)
+		{
+			words[i>>>6]|=1L<<i;
+			_improve(ws,targets[i],targets[i]);		//distance 0 to itself
+		}
+
+		_spread(ws);
+	}
+
+	private PillDistanceField(PillDistanceField field,Object owner)
+	{
+		this.maze=field.maze;
+		this.targets=field.targets;
+		this.neighbours=field.neighbours;
+		this.values=field.values.clone();
+		this.words=field.words.clone();
+		this.owner=owner;
+	}
+
+	/**
+	 * The maze of the field.
+	 */
+	public Maze getMaze()
+	{
+		return maze;
+	}
+
+	/**
+	 * Whether this field belongs to the maze given and reflects exactly the targets given.
+	 */
+	public boolean reflects(Maze maze,long[] targetWords)
+	{
+		if(this.maze!=maze)
+			return false;
+
+		for(int w=0;w<words.length;w++)
+			if(words[w]!=targetWords[w])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Returns a field that reflects the targets given. The field itself is updated if it is owned by the
+	 * caller; otherwise, a copy owned by the caller is updated and returned.
+	 *
+	 * @param targetWords The targets present, in the same maze
+	 * @param caller The object requesting the field (usually a game)
+	 * @return the field
+	 */
+	public PillDistanceField sync(long[] targetWords,Object caller)
+	{
+		PillDistanceField field=owner==caller ? this : new PillDistanceField(this,caller);
+		field._update(targetWords);
+
+		return field;
+	}
+
+	/**
+	 * Gives up ownership: the field is about to be shared, so nobody may modify it from now on.
+	 */
+	public void share()
+	{
+		owner=null;
+	}
+
+	/**
+	 * The distance from the node to the nearest target, or Integer.MAX_VALUE if there is none.
+	 */
+	public int getDistance(int nodeIndex)
+	{
+		int value=values[nodeIndex];
+
+		return value==INFINITY ? INFINITY : value>>>16;
+	}
+
+	/**
+	 * The node index of the nearest target (the lowest one on a tie), or -1 if there is none.
+	 */
+	public int getNearest(int nodeIndex)
+	{
+		int target=values[nodeIndex]&NONE;
+
+		return target==NONE ? -1 : target;
+	}
+
+	private void _update(long[] targetWords)
+	{
+		Workspace ws=workspaces.get();
+		ws.begin(values.length);
+
+		int[] stack=ws.stack;
+		int size=0;
+
+		//targets that have disappeared: every node whose nearest target it was is reset (these nodes form a connected region)
+		for(int w=0;w<words.length;w++)
+			for(long removed=words[w]&~targetWords[w];removed!=0;removed&=removed-1)
+			{
+				int target=targets[(w<<6)+Long.numberOfTrailingZeros(removed)];
+
+				values[target]=INFINITY;
+				ws.mark(target);
+				stack[size++]=target;
+
+				while(size>0)
+				{
+					int node=stack[--size];
+
+					for(int m=0;m<4;m++)
+					{
+						int next=neighbours[node*4+m];
+
+						if(next!=-1 && !ws.isMarked(next) && (values[next]&NONE)==target)
+						{
+							values[next]=INFINITY;
+							ws.mark(next);
+							stack[size++]=next;
+						}
+					}
+				}
+			}
+
+		//the reset nodes are seeded from their unaffected neighbours
+		for(int i=0;i<ws.numMarked;i++)
+		{
+			int node=ws.marked[i];
+
+			for(int m=0;m<4;m++)
+			{
+				int next=neighbours[node*4+m];
+
+				if(next!=-1 && !ws.isMarked(next) && values[next]!=INFINITY)
+					_improve(ws,node,values[next]+STEP);
+			}
+		}
+
+		//targets that have appeared (e.g., after Game.undo())
+		for(int w=0;w<words.length;w++)
+			for(long added=targetWords[w]&~words[w];added!=0;added&=added-1)
+			{
+				int target=targets[(w<<6)+Long.numberOfTrailingZeros(added)];
+				_improve(ws,target,target);
+			}
+
+		System.arraycopy(targetWords,0,words,0,words.length);
+		_spread(ws);
+	}
+
+	/**
+	 * Lowers the value of the node if the value given is better and queues the node.
+	 */
+	private void _improve(Workspace ws,int node,int value)
+	{
+		if(value<values[node])
+		{
+			values[node]=value;
+			ws.push(((long)value<<16)|node);
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm (all edges have length 1) from the queued nodes: values spread as long as they improve.
+	 */
+	private void _spread(Workspace ws)
+	{
+		while(ws.size>0)
+		{
+			long entry=ws.pop();
+			int node=(int)(entry&NONE);
+			int value=(int)(entry>>>16);
+
+			if(value!=values[node])		//superseded by a better value
+				continue;
+
+			for(int m=0;m<4;m++)
+			{
+				int next=neighbours[node*4+m];
+
+				if(next!=-1)
+					_improve(ws,next,value+STEP);
+			}
+		}
+	}
+
+	/*
+	 * Scratch space for the updates, one per thread: a binary heap and a set of marked nodes.
+	 */
+	private static final class Workspace
+	{
+		long[] heap=new long[256];
+		int size;
+		int[] stack=new int[0],marked=new int[0],stamps=new int[0];
+		int numMarked,stamp;
+
+		void begin(int numNodes)
+		{
+			if(stamps.length<numNodes)
+			{
+				stamps=new int[numNodes];
+				stack=new int[numNodes];
+				marked=new int[numNodes];
+				stamp=0;
+			}
+
+			stamp++;
+			numMarked=0;
+			size=0;
+		}
+
+		void mark(int node)
+		{
+			stamps[node]=stamp;
+			marked[numMarked++]=node;
+		}
+
+		boolean isMarked(int node)
+		{
+			return stamps[node]==stamp;
+		}
+
+		void push(long entry)
+		{
+			if(size==heap.length)
+				heap=Arrays.copyOf(heap,size*2);
+
+			int i=size++;
+
+			while(i>0)
+			{
+				int parent=(i-1)>>>1;
+
+				if(heap[parent]<=entry)
+					break;
+
+				heap[i]=heap[parent];
+				i=parent;
+			}
+
+			heap[i]=entry;
+		}
+
+		long pop()
+		{
+			long top=heap[0];
+			long last=heap[--size];
+			int i=0;
+
+			while(true)
+			{
+				int child=2*i+1;
+
+				if(child>=size)
+					break;
+
+				if(child+1<size && heap[child+1]<heap[child])
+					child++;
+
+				if(heap[child]>=last)
+					break;
+
+				heap[i]=heap[child];
+				i=child;
+			}
+
+			heap[i]=last;
+
+			return top;
+		}
+	}
+}
@@ -0,0 +1,581 @@
+package pacman;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import pacman.controllers.Controller;
+import pacman.controllers.agents.PolicyIterationAgent;
+import pacman.controllers.agents.QLearningAgent;
+import pacman.controllers.agents.ValueIterationAgent;
+import pacman.controllers.examples.AggressiveGhosts;
+import pacman.controllers.examples.Legacy;
+import pacman.controllers.examples.Legacy2TheReckoning;
+import pacman.controllers.examples.NearestPillPacMan;
+import pacman.controllers.examples.RandomGhosts;
+import pacman.controllers.examples.RandomNonRevPacMan;
+import pacman.controllers.examples.StarterGhosts;
+import pacman.controllers.examples.StarterPacMan;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Plays every Pac-Man controller against every ghost team, in every maze and with the same seeds for all pairings, on
+ * several cores (the games are played as in Executor.runExperiment()). Every game is appended to a checkpoint file as
+ * soon as it is over; a tournament run with an existing checkpoint file only plays the games missing from it, so an
+ * interrupted tournament can be resumed.
+ *
+ * The entrants are ranked by Elo ratings. The Pac-Man controllers play each other indirectly: two controllers that played
+ * the same game (same ghost team, maze and seed) are considered to have played a match, won by the one that scored more.
+ * The ghost teams are rated the same way, a match being won by the team that conceded fewer points. The matches are rated
+ * in a fixed order, so the ratings only depend on the scores.
+ */
+public class Tournament
+{
+	private static final String CHECKPOINT_HEADER="pacman,ghosts,maze,seed,score";
+	private static final double INITIAL_RATING=1500,K_FACTOR=16;
+
+	private final Map<String,Supplier<? extends Controller<MOVE>>> pacManControllers=new LinkedHashMap<String,Supplier<? extends Controller<MOVE>>>();
+	private final Map<String,Supplier<? extends Controller<EnumMap<GHOST,MOVE>>>> ghostControllers=new LinkedHashMap<String,Supplier<? extends Controller<EnumMap<GHOST,MOVE>>>>();
+	private final long[] seeds;
+	private final int parallelism;
+
+	/**
+	 * Instantiates a new tournament without entrants.
+	 *
+	 * @param seedsPerMaze The number of games of each pairing in each maze
+	 * @param parallelism The number of games played at the same time
+	 */
+	public Tournament(int seedsPerMaze,int parallelism)
+	{
+		if(parallelism<1)
+			throw new IllegalArgumentException("The parallelism must be at least 1: "+parallelism);
+
+		this.seeds=ParallelExperiment.deriveSeeds(0,seedsPerMaze);
+		this.parallelism=parallelism;
+	}
+
+	/**
+	 * Instantiates a new tournament with the controllers that come with the framework: the example controllers and the
+	 * agents of the coursework. The agents learn when they are created, so each worker thread creates only one of each.
+	 */
+	public static Tournament withDefaultEntrants(int seedsPerMaze,int parallelism)
+	{
+		Tournament tournament=new Tournament(seedsPerMaze,parallelism);
+
+		tournament.addPacMan("StarterPacMan",StarterPacMan::new);
+		tournament.addPacMan("NearestPillPacMan",NearestPillPacMan::new);
+		tournament.addPacMan("RandomNonRevPacMan",RandomNonRevPacMan::new);
+		tournament.addPacMan("ValueIterationAgent",perThread(ValueIterationAgent::new));
+		tournament.addPacMan("PolicyIterationAgent",perThread(PolicyIterationAgent::new));
+		tournament.addPacMan("QLearningAgent",perThread(QLearningAgent::new));
+
+		tournament.addGhosts("StarterGhosts",StarterGhosts::new);
+		tournament.addGhosts("Legacy",Legacy::new);
+		tournament.addGhosts("Legacy2TheReckoning",Legacy2TheReckoning::new);
+		tournament.addGhosts("AggressiveGhosts",AggressiveGhosts::new);
+		tournament.addGhosts("RandomGhosts",RandomGhosts::new);
+
+		return tournament;
+	}
+
+	/**
+	 * A supplier that creates one controller per thread and returns it on every call from that thread.
+	 */
+	public static <T> Supplier<T> perThread(final Supplier<T> supplier)
+	{
+		final ThreadLocal<T> instances=new ThreadLocal<T>();
+
+		return new Supplier<T>()
+		{
+			public T get()
+			{
+				T instance=instances.get();
+
+				if(instance==null)
+				{
+					instance=supplier.get();
+					instances.set(instance);
+				}
+
+				return instance;
+			}
+		};
+	}
+
+	public Tournament addPacMan(String name,Supplier<? extends Controller<MOVE>> controllers)
+	{
+		pacManControllers.put(_checkName(name),controllers);
+
+		return this;
+	}
+
+	public Tournament addGhosts(String name,Supplier<? extends Controller<EnumMap<GHOST,MOVE>>> controllers)
+	{
+		ghostControllers.put(_checkName(name),controllers);
+
+		return this;
+	}
+
+	private static String _checkName(String name)
+	{
+		if(name.isEmpty() || name.contains(",") || name.contains("\n"))
+			throw new IllegalArgumentException("Invalid name: '"+name+"'");
+
+		return name;
+	}
+
+	/**
+	 * Plays all games missing from the checkpoint file (which is created if it does not exist) and returns the results
+	 * of all games of the tournament, sorted by Pac-Man controller, ghost team, maze and seed.
+	 *
+	 * @param checkpoint The file the results are appended to, or null
+	 * @return the results
+	 * @throws IOException if the checkpoint file cannot be read or written
+	 */
+	public List<GameResult> run(File checkpoint) throws IOException
+	{
+		final List<GameResult> results=Collections.synchronizedList(new ArrayList<GameResult>());
+		Set<String> games=new HashSet<String>(),done=new HashSet<String>();
+
+		for(String pacMan : pacManControllers.keySet())
+			for(String ghosts : ghostControllers.keySet())
+				for(int maze=0;maze<NUM_MAZES;maze++)
+					for(long seed : seeds)
+						games.add(new GameResult(pacMan,ghosts,maze,seed,0).key());
+
+		//the games of the tournament played already (the checkpoint may contain other games, e.g., of other entrants)
+		if(checkpoint!=null && checkpoint.exists())
+			for(GameResult result : readResults(checkpoint))
+				if(games.contains(result.key()) && done.add(result.key()))
+					results.add(result);
+
+		final PrintWriter writer=checkpoint==null ? null : _openCheckpoint(checkpoint);
+		List<Callable<Void>> tasks=new ArrayList<Callable<Void>>();
+
+		for(final String pacMan : pacManControllers.keySet())
+			for(final String ghosts : ghostControllers.keySet())
+				for(int maze=0;maze<NUM_MAZES;maze++)
+					for(final long seed : seeds)
+					{
+						final int initialMaze=maze;
+
+						if(done.contains(new GameResult(pacMan,ghosts,maze,seed,0).key()))
+							continue;
+
+						tasks.add(new Callable<Void>()
+						{
+							public Void call()
+							{
+								int score=ParallelExperiment.playGame(pacManControllers.get(pacMan).get(),ghostControllers.get(ghosts).get(),seed,initialMaze);
+								GameResult result=new GameResult(pacMan,ghosts,initialMaze,seed,score);
+								results.add(result);
+
+								if(writer!=null)
+								{
+									synchronized(writer)
+									{
+										writer.println(result.toCsv());
+										writer.flush();
+									}
+								}
+
+								return null;
+							}
+						});
+					}
+
+		ForkJoinPool pool=new ForkJoinPool(parallelism);
+
+		try
+		{
+			for(Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the games",e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new IllegalStateException("A game failed",e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+
+			if(writer!=null)
+				writer.close();
+		}
+
+		List<GameResult> sorted=new ArrayList<GameResult>(results);
+		Collections.sort(sorted);
+
+		return sorted;
+	}
+
+	private static PrintWriter _openCheckpoint(File checkpoint) throws IOException
+	{
+		if(checkpoint.exists())
+			_truncateIncompleteLine(checkpoint);		//the line readResults() ignored is replayed and written again
+
+		boolean isNew=!checkpoint.exists() || checkpoint.length()==0;
+		PrintWriter writer=new PrintWriter(new FileWriter(checkpoint,true));
+
+		if(isNew)
+			writer.println(CHECKPOINT_HEADER);
+
+		writer.flush();
+
+		return writer;
+	}
+
+	/**
+	 * Removes the last line of the file if it does not end with a new line.
+	 */
+	private static void _truncateIncompleteLine(File file) throws IOException
+	{
+		RandomAccessFile out=new RandomAccessFile(file,"rw");
+
+		try
+		{
+			long length=out.length();
+
+			while(length>0)
+			{
+				out.seek(length-1);
+
+				if(out.read()=='\n')
+					break;
+
+				length--;
+			}
+
+			out.setLength(length);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static boolean _endsWithNewLine(File file) throws IOException
+	{
+		if(file.length()==0)
+			return true;
+
+		RandomAccessFile in=new RandomAccessFile(file,"r");
+
+		try
+		{
+			in.seek(file.length()-1);
+
+			return in.read()=='\n';
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the results saved in a checkpoint file. A line that is incomplete (the tournament was stopped while it was
+	 * written) is ignored; as every line is flushed at once, this can only be the last one, which then does not end
+	 * with a new line.
+	 */
+	public static List<GameResult> readResults(File checkpoint) throws IOException
+	{
+		List<GameResult> results=new ArrayList<GameResult>();
+		boolean isComplete=_endsWithNewLine(checkpoint);
+		BufferedReader reader=new BufferedReader(new FileReader(checkpoint));
+
+		try
+		{
+			String line=reader.readLine();
+
+			while(line!=null)
+			{
+				String next=reader.readLine();
+
+				if(next==null && !isComplete)
+					break;		//an incomplete line, even if its values happen to parse (e.g., a score cut off)
+
+				String[] values=line.split(",");
+				boolean isHeader=line.equals(CHECKPOINT_HEADER);
+				line=next;
+
+				if(values.length!=5 || isHeader)
+					continue;
+
+				try
+				{
+					results.add(new GameResult(values[0],values[1],Integer.parseInt(values[2]),Long.parseLong(values[3]),Integer.parseInt(values[4])));
+				}
+				catch(NumberFormatException e)
+				{
+					//not a result
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return results;
+	}
+
+	/**
+	 * The Elo ratings of the Pac-Man controllers (see the class comment), highest first.
+	 */
+	public static Map<String,Double> ratePacMen(List<GameResult> results)
+	{
+		return _rate(results,true);
+	}
+
+	/**
+	 * The Elo ratings of the ghost teams (see the class comment), highest first.
+	 */
+	public static Map<String,Double> rateGhosts(List<GameResult> results)
+	{
+		return _rate(results,false);
+	}
+
+	/**
+	 * Rates the Pac-Man controllers (or the ghost teams) by the matches between entrants that played the same game.
+	 */
+	private static Map<String,Double> _rate(List<GameResult> results,boolean pacMen)
+	{
+		//the games, identified by the opponent, the maze and the seed, and the score of each entrant in it
+		TreeMap<String,TreeMap<String,Integer>> games=new TreeMap<String,TreeMap<String,Integer>>();
+		Map<String,Double> ratings=new TreeMap<String,Double>();
+
+		for(GameResult result : results)
+		{
+			String entrant=pacMen ? result.pacMan : result.ghosts;
+			String game=(pacMen ? result.ghosts : result.pacMan)+","+result.maze+","+result.seed;
+
+			TreeMap<String,Integer> scores=games.get(game);
+
+			if(scores==null)
+				games.put(game,scores=new TreeMap<String,Integer>());
+
+			scores.put(entrant,result.score);
+			ratings.put(entrant,INITIAL_RATING);
+		}
+
+		for(TreeMap<String,Integer> scores : games.values())
+		{
+			List<String> entrants=new ArrayList<String>(scores.keySet());
+
+			for(int i=0;i<entrants.size();i++)
+				for(int j=i+1;j<entrants.size();j++)
+				{
+					String a=entrants.get(i),b=entrants.get(j);
+					int difference=Integer.compare(scores.get(a),scores.get(b))*(pacMen ? 1 : -1);
+					double outcome=difference>0 ? 1 : (difference<0 ? 0 : 0.5);
+					double ra=ratings.get(a),rb=ratings.get(b);
+					double expected=1/(1+Math.pow(10,(rb-ra)/400));
+
+					ratings.put(a,ra+K_FACTOR*(outcome-expected));
+					ratings.put(b,rb-K_FACTOR*(outcome-expected));
+				}
+		}
+
+		List<Map.Entry<String,Double>> entries=new ArrayList<Map.Entry<String,Double>>(ratings.entrySet());
+		Collections.sort(entries,new Comparator<Map.Entry<String,Double>>()
+		{
+			public int compare(Map.Entry<String,Double> a,Map.Entry<String,Double> b)
+			{
+				return Double.compare(b.getValue(),a.getValue());
+			}
+		});
+
+		Map<String,Double> ranking=new LinkedHashMap<String,Double>();
+
+		for(Map.Entry<String,Double> entry : entries)
+			ranking.put(entry.getKey(),entry.getValue());
+
+		return ranking;
+	}
+
+	/**
+	 * Writes the ranking of the Pac-Man controllers and of the ghost teams as CSV: role, rank, name, Elo rating,
+	 * number of games and the mean score of (or conceded by) the entrant.
+	 */
+	public static void writeRankings(List<GameResult> results,File file) throws IOException
+	{
+		PrintWriter writer=new PrintWriter(new FileWriter(file));
+
+		try
+		{
+			writer.println("role,rank,name,elo,games,mean_score");
+			_writeRanking(writer,"pacman",ratePacMen(results),results,true);
+			_writeRanking(writer,"ghosts",rateGhosts(results),results,false);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private static void _writeRanking(PrintWriter writer,String role,Map<String,Double> ratings,List<GameResult> results,boolean pacMen)
+	{
+		int rank=1;
+
+		for(Map.Entry<String,Double> entry : ratings.entrySet())
+		{
+			long sum=0;
+			int games=0;
+
+			for(GameResult result : results)
+				if(entry.getKey().equals(pacMen ? result.pacMan : result.ghosts))
+				{
+					sum+=result.score;
+					games++;
+				}
+
+			writer.println(role+","+(rank++)+","+entry.getKey()+","+String.format("%.1f",entry.getValue())+","+games+","
+					+String.format("%.1f",sum/(double)games));
+		}
+	}
+
+	/**
+	 * Writes the statistics of the scores of every pairing as CSV (see ParallelExperiment.Result).
+	 */
+	public static void writePairings(List<GameResult> results,File file) throws IOException
+	{
+		Map<String,List<Integer>> pairings=new TreeMap<String,List<Integer>>();
+
+		for(GameResult result : results)
+		{
+			String pairing=result.pacMan+","+result.ghosts;
+			List<Integer> scores=pairings.get(pairing);
+
+			if(scores==null)
+				pairings.put(pairing,scores=new ArrayList<Integer>());
+
+			scores.add(result.score);
+		}
+
+		PrintWriter writer=new PrintWriter(new FileWriter(file));
+
+		try
+		{
+			writer.println("pacman,ghosts,games,mean,sd,se,min,p50,max");
+
+			for(Map.Entry<String,List<Integer>> entry : pairings.entrySet())
+			{
+				int[] scores=new int[entry.getValue().size()];
+
+				for(int i=0;i<scores.length;i++)
+					scores[i]=entry.getValue().get(i);
+
+				ParallelExperiment.Result stats=new ParallelExperiment.Result(scores);
+
+				writer.println(entry.getKey()+","+scores.length+","+String.format("%.1f,%.1f,%.1f",stats.getMean(),stats.getStandardDeviation(),
+						stats.getStandardError())+","+stats.getPercentile(0)+","+stats.getPercentile(50)+","+stats.getPercentile(100));
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Runs the tournament of the default entrants, resuming from the checkpoint in the output directory if there is one,
+	 * and writes rankings.csv and pairings.csv into the directory.
+	 *
+	 * @param args The number of seeds per maze (default 10) and the output directory (default "tournament")
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int seedsPerMaze=args.length>0 ? Integer.parseInt(args[0]) : 10;
+		File directory=new File(args.length>1 ? args[1] : "tournament");
+		directory.mkdirs();
+
+		List<GameResult> results=withDefaultEntrants(seedsPerMaze,Runtime.getRuntime().availableProcessors()).run(new File(directory,"games.csv"));
+
+		writeRankings(results,new File(directory,"rankings.csv"));
+		writePairings(results,new File(directory,"pairings.csv"));
+
+		for(Map.Entry<String,Double> entry : ratePacMen(results).entrySet())
+			System.out.println(String.format("%-24s %7.1f",entry.getKey(),entry.getValue()));
+
+		System.out.println();
+
+		for(Map.Entry<String,Double> entry : rateGhosts(results).entrySet())
+			System.out.println(String.format("%-24s %7.1f",entry.getKey(),entry.getValue()));
+	}
+
+	/**
+	 * The result of one game of the tournament.
+	 */
+	public static final class GameResult implements Comparable<GameResult>
+	{
+		public final String pacMan,ghosts;
+		public final int maze,score;
+		public final long seed;
+
+		public GameResult(String pacMan,String ghosts,int maze,long seed,int score)
+		{
+			this.pacMan=pacMan;
+			this.ghosts=ghosts;
+			this.maze=maze;
+			this.seed=seed;
+			this.score=score;
+		}
+
+		String key()
+		{
+			return pacMan+","+ghosts+","+maze+","+seed;
+		}
+
+		String toCsv()
+		{
+			return key()+","+score;
+		}
+
+		public int compareTo(GameResult other)
+		{
+			int c=pacMan.compareTo(other.pacMan);
+
+			if(c==0)
+				c=ghosts.compareTo(other.ghosts);
+
+			if(c==0)
+				c=Integer.compare(maze,other.maze);
+
+			if(c==0)
+				c=Long.compare(seed,other.seed);
+
+			return c;
+		}
+
+		public String toString()
+		{
+			return toCsv();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package pacman.game.util;
+
+import java.util.Arrays;
+
+import pacman.game.Constants.MOVE;
+
+/**
+ * A fixed-size transposition table keyed by Game.getStateHash(). Search controllers can use it to
+ * recognise positions they have already evaluated, even if these were reached via a different
+ * sequence of moves. Each entry holds a value, the depth it was searched to, the best move found
+ * and whether the value is exact or a lower/upper bound.
+ *
+ * The table is lock-free and may be shared by any number of threads. Every slot stores the data
+ * and the hash XOR the data in two separate words: if two threads write the same slot at the same
+ * time, the words of the slot no longer match and probe() treats the slot as empty rather than
+ * returning the data of another position (the scheme used by chess engines such as Crafty). Entries
+ * may be lost this way, but a corrupted entry is never returned.
+ */
+public final class TranspositionTable
+{
+	public static final int EXACT=0,LOWER_BOUND=1,UPPER_BOUND=2;
+
+	//returned by probe() if the position is not in the table; no packed entry has this value
+	public static final long MISS=-1L;
+
+	private static final int DEPTH_SHIFT=32,MOVE_SHIFT=48,BOUND_SHIFT=52,USED_SHIFT=54;
+	private static final MOVE[] MOVES=MOVE.values();
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+
+	/**
+	 * Instantiates a new table. The number of slots is rounded up to a power of two.
+	 *
+	 * @param capacity The minimum number of slots
+	 */
+	public TranspositionTable(int capacity)
+	{
+		int size=Integer.highestOneBit(Math.max(1,capacity));
+
+		if(size<capacity)
+			size<<=1;
+
+		keys=new long[size];
+		data=new long[size];
+		mask=size-1;
+	}
+
+	/**
+	 * Stores an entry for the position with the given hash. An existing entry for a different
+	 * position is always replaced; an existing entry for the same position only if it was
+	 * searched to a depth not greater than the new one.
+	 *
+	 * @param hash The hash of the position
+	 * @param value The value of the position
+	 * @param depth The depth the position was searched to (0-65535)
+	 * @param move The best move found, or MOVE.NEUTRAL if there is none
+	 * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+	 */
+	public void store(long hash,int value,int depth,MOVE move,int bound)
+	{
+		int slot=(int)hash&mask;
+		long current=data[slot];
+
+		if((keys[slot]^current)==hash && current!=0 && getDepth(current)>depth)
+			return;
+
+		long entry=pack(value,depth,move,bound);
+
+		data[slot]=entry;
+		keys[slot]=hash^entry;
+	}
+
+	/**
+	 * Looks up the position with the given hash.
+	 *
+	 * @param hash The hash of the position
+	 * @return the packed entry (see getValue(), getDepth(), getMove() and getBound()), or MISS
+	 */
+	public long probe(long hash)
+	{
+		int slot=(int)hash&mask;
+		long entry=data[slot];
+
+		if(entry==0 || (keys[slot]^entry)!=hash)
+			return MISS;
+
+		return entry;
+	}
+
+	/**
+	 * Removes all entries. This must not be called while other threads use the table.
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys,0);
+		Arrays.fill(data,0);
+	}
+
+	/**
+	 * Returns the number of slots of the table.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * Packs an entry into a single long. A flag bit is set so that no entry is 0 (an empty slot).
+	 */
+	public static long pack(int value,int depth,MOVE move,int bound)
+	{
+		return (value&0xffffffffL)|((long)(depth&0xffff)<<DEPTH_SHIFT)|((long)move.ordinal()<<MOVE_SHIFT)
+				|((long)(bound&3)<<BOUND_SHIFT)|(1L<<USED_SHIFT);
+	}
+
+	public static int getValue(long entry)
+	{
+		return (int)entry;
+	}
+
+	public static int getDepth(long entry)
+	{
+		return (int)(entry>>>DEPTH_SHIFT)&0xffff;
+	}
+
+	public static MOVE getMove(long entry)
+	{
+		return MOVES[(int)(entry>>>MOVE_SHIFT)&0xf];
+	}
+
+	public static int getBound(long entry)
+	{
+		return (int)(entry>>>BOUND_SHIFT)&3;
+	}
+}